@@ -1,17 +1,62 @@
 package ascii_art;
 
+import ascii_output.AsciiOutput;
+import ascii_output.AsciiRowOutput;
+import ascii_output.ColorAsciiOutput;
 import image.*;
+import image_char_matching.ErrorDiffusionDitherer;
+import image_char_matching.ShapeCharMatcher;
 import image_char_matching.SubImgCharMatcher;
 
+import java.awt.Rectangle;
+import java.io.IOException;
+
 /**
  * A class that is responsible for tunning the ascii Art algorithm according to the image, SubImgCharMatcher
  * and resolution received
  */
 public class AsciiArtAlgorithm {
 
+    /**
+     * The ways a sub-image can be matched to an ascii char
+     */
+    public enum MatchingMode {
+        /**
+         * the char with the closest normalized brightness to the sub-image brightness
+         */
+        BRIGHTNESS,
+        /**
+         * the char whose shape differs in the least pixels from the thresholded sub-image
+         */
+        SHAPE,
+        /**
+         * a directional glyph for a sub-image with a strong edge across it, and the char with the closest
+         * normalized brightness for the rest
+         */
+        EDGE
+    }
+
+    /**
+     * the glyph of every ImageEdges direction, by its value
+     */
+    private static final char[] EDGE_GLYPHS = {'|', '/', '-', '\\', '_'};
+
+    /**
+     * every AUDIT_INTERVAL-th sub-image of a sampled run is calculated exactly too, to report how many chars
+     * the sampling changed. it is prime so the audited sub-images do not fall in the same cols
+     */
+    private static final int AUDIT_INTERVAL = 61;
+
+    private MatchingMode matchingMode = MatchingMode.BRIGHTNESS;
+    private ErrorDiffusionDitherer.Kernel ditheringKernel;
     private int resolution;
     private Image image;
+    private ImageViewport viewport;
     private SubImgCharMatcher imageAsciiConvertor;
+    private RenderJob job;
+    private double sampledFraction;
+    private int auditedCells;
+    private int differingCells;
 
     /**
      * constructor
@@ -26,22 +71,327 @@ public class AsciiArtAlgorithm {
 
     }
 
+    /**
+     * constructor for rendering rectangles of an image file with run(Rectangle), without loading all of it
+     * @param viewport - the image file to be converted
+     * @param imageAsciiConvertor - contains the charset and the brightness values
+     * @param resolution - the wanted number of chars in a row of a rectangle
+     */
+    public AsciiArtAlgorithm(ImageViewport viewport, SubImgCharMatcher imageAsciiConvertor, int resolution){
+        this.resolution = resolution;
+        this.viewport = viewport;
+        this.imageAsciiConvertor = imageAsciiConvertor;
+    }
+
+    /**
+     * constructor for matching a brightness that was calculated before with run(double[][]), without the
+     * image
+     * @param imageAsciiConvertor - contains the charset and the brightness values
+     * @param resolution - the number of sub-images in a row of the brightness
+     */
+    public AsciiArtAlgorithm(SubImgCharMatcher imageAsciiConvertor, int resolution){
+        this.resolution = resolution;
+        this.imageAsciiConvertor = imageAsciiConvertor;
+    }
+
+    /**
+     * Changes the way sub-images are matched to ascii chars
+     * @param matchingMode - the wanted matching mode
+     */
+    public void setMatchingMode(MatchingMode matchingMode){
+        this.matchingMode = matchingMode;
+    }
+
+    /**
+     * Changes the dithering of the brightness matching
+     * @param ditheringKernel - the kernel used to diffuse the matching error, null to match every sub-image
+     *                        on its own
+     */
+    public void setDithering(ErrorDiffusionDitherer.Kernel ditheringKernel){
+        this.ditheringKernel = ditheringKernel;
+    }
+
+    /**
+     * Makes the algorithm report its progress to a background job, and stop at the next row boundary once
+     * the job is cancelled
+     * @param job - the job, null to run without one
+     */
+    void setJob(RenderJob job){
+        this.job = job;
+    }
+
+    /**
+     * Stops the algorithm if its job was cancelled
+     * @throws java.util.concurrent.CancellationException if the job was cancelled
+     */
+    private void checkCancelled(){
+        if(job != null){
+            job.checkCancelled();
+        }
+    }
+
     /**
      * Runs the algorithm - devide the image to sub-images, and finds the matching ascii char to replace a
-     * sub image according to the calculated brightness
+     * sub image according to the calculated brightness.
+     * The arrays are reused between runs on the same thread, so a repeated run of the same dimensions
+     * allocates nothing, and the returned array is overwritten by the next run on this thread.
      * @return - a two-dimensional array of ascii chars that represents the image
      */
     public char[][] run(){
+        if(matchingMode == MatchingMode.SHAPE){
+            return runShapes();
+        }
+        if(matchingMode == MatchingMode.EDGE){
+            return runEdges();
+        }
+        return convertBrightness(RenderContext.get().brightness(image, resolution, job));
+    }
+
+    /**
+     * Runs the algorithm row by row - every row of ascii chars is handed to a writer thread as soon as it is
+     * matched, so the output writes the previous rows while the next ones are calculated
+     * @param output - the output the rows are delivered to
+     */
+    public void run(AsciiRowOutput output){
+        if(matchingMode != MatchingMode.BRIGHTNESS){
+            char[][] asciiArt = run();
+            output.begin(asciiArt.length, resolution);
+            for (char[] row : asciiArt){
+                output.row(row);
+            }
+            output.end();
+            return;
+        }
         ImageBrightness imageBrightness = new ImageBrightness(image, resolution);
-        double[][] greyImages = imageBrightness.calculateBrightness();
+        int rows = imageBrightness.getRows();
+        ErrorDiffusionDitherer ditherer = ditheringKernel == null ? null :
+                new ErrorDiffusionDitherer(imageAsciiConvertor, ditheringKernel, resolution);
+        RowStreamer rowStreamer = new RowStreamer(output, rows, resolution);
+        try {
+            for (int row = 0; row < rows; row++){
+                char[] asciiRow = rowStreamer.takeRow();
+                convertRow(imageBrightness.calculateRow(row), asciiRow, ditherer);
+                rowStreamer.putRow(asciiRow);
+            }
+            rowStreamer.finish();
+        }
+        finally {
+            // the writer thread must not outlive a producer that threw
+            rowStreamer.abort();
+        }
+    }
+
+    /**
+     * Runs the matching on a brightness that was calculated before, e.g. read from a BrightnessDiskCache.
+     * The sub-images are always matched by brightness.
+     * @param brightness - the normalized brightness of the sub-images
+     * @return - a two-dimensional array of ascii chars that represents the image
+     */
+    public char[][] run(double[][] brightness){
+        return convertBrightness(brightness);
+    }
+
+    /**
+     * Runs the algorithm on a brightness estimated from a sample of the pixels of every sub-image, that
+     * grows until the matched char can not change within three standard errors. The sub-images are always
+     * matched by brightness, without dithering. A part of the sub-images is also calculated exactly and
+     * matched, and the chars that differ are counted for getSamplingReport.
+     * @return - a two-dimensional array of ascii chars that represents the image
+     */
+    public char[][] runSampled(){
+        SampledBrightness sampledBrightness = new SampledBrightness(image, resolution,
+                imageAsciiConvertor::getMatchMargin);
+        int rows = sampledBrightness.getRows();
+        double[][] greyImages = new double[rows][];
+        for (int row = 0; row < rows; row++){
+            checkCancelled();
+            greyImages[row] = sampledBrightness.calculateRow(row);
+            if(job != null){
+                job.setProgress(row + 1, rows);
+            }
+        }
+        char[][] asciiArt = convertBrightness(greyImages);
+        sampledFraction = sampledBrightness.getSampledFraction();
+        auditedCells = 0;
+        differingCells = 0;
+        for (long cell = 0; cell < (long) rows * resolution; cell += AUDIT_INTERVAL){
+            int row = (int) (cell / resolution);
+            int col = (int) (cell % resolution);
+            char exactChar = imageAsciiConvertor.getCharByImageBrightness(
+                    sampledBrightness.exactBrightness(row, col));
+            auditedCells++;
+            if(exactChar != asciiArt[row][col]){
+                differingCells++;
+            }
+        }
+        return asciiArt;
+    }
+
+    /**
+     * a report of the last runSampled - the part of the pixels that was read, and the part of the audited
+     * chars that differ from the chars of the exact brightness
+     * @return String
+     */
+    public String getSamplingReport(){
+        return String.format("Sampled %.1f%% of the pixels, %d of %d audited chars (%.2f%%) differ from " +
+                "exact", 100 * sampledFraction, differingCells, auditedCells,
+                auditedCells == 0 ? 0 : 100.0 * differingCells / auditedCells);
+    }
+
+    /**
+     * Runs the algorithm within the time budget of the scheduler - the brightness is calculated in passes
+     * of growing resolution, up to the wanted one, and the finest pass that is expected to be matched in
+     * time is converted. The sub-images are always matched by brightness.
+     * @param scheduler - chooses the passes and records if the deadline was met
+     * @return - a two-dimensional array of ascii chars that represents the image, in the resolution of the
+     * pass
+     */
+    public char[][] run(DeadlineScheduler scheduler){
+        long start = System.nanoTime();
+        double[][] greyImages = scheduler.brightness(image, resolution, start);
+        long matchStart = System.nanoTime();
+        char[][] asciiArt = convertBrightness(greyImages);
+        scheduler.finish(start, matchStart, asciiArt.length, asciiArt[0].length);
+        return asciiArt;
+    }
+
+    /**
+     * Runs the algorithm and delivers the ascii art to the output together with the mean color of every
+     * sub-image. In brightness mode the colors are calculated in the same pass over the pixels as the
+     * brightness.
+     * @param output - the output the ascii art and the colors are delivered to
+     */
+    public void run(ColorAsciiOutput output){
+        int[][] colors = new ImageBrightness(image, resolution).calculateColors();
+        char[][] asciiArt = run();
+        checkCancelled();
+        output.out(asciiArt, colors);
+    }
+
+    /**
+     * Runs the algorithm progressively - delivers a coarse ascii art, calculated from a sample of the pixels
+     * in a quarter of the resolution, to the output first, and then refines it until the wanted resolution
+     * is reached. If the brightness of the resolution was already calculated, or the chars are matched by
+     * shape, the final ascii art is delivered at once.
+     * @param output - the output every pass is delivered to
+     */
+    public void runProgressive(AsciiOutput output){
+        ImageBrightness imageBrightness = new ImageBrightness(image, resolution);
+        if(matchingMode != MatchingMode.BRIGHTNESS){
+            char[][] asciiArt = run();
+            checkCancelled();
+            output.out(asciiArt);
+            return;
+        }
+        if(imageBrightness.isCalculated()){
+            char[][] asciiArt = convertBrightness(imageBrightness.calculateBrightness());
+            checkCancelled();
+            output.out(asciiArt);
+            return;
+        }
+        ProgressiveBrightness progressiveBrightness = new ProgressiveBrightness(image, resolution);
+        while (progressiveBrightness.hasNextPass()){
+            char[][] asciiArt = convertBrightness(progressiveBrightness.nextPass());
+            checkCancelled();
+            output.out(asciiArt);
+        }
+    }
+
+    /**
+     * Runs the algorithm on a rectangle of the viewport image - only the part of the file under the
+     * rectangle is decoded, and the brightness of sub-images seen in earlier rectangles is reused. The
+     * sub-images are always matched by brightness.
+     * @param rectangle - the rectangle of the image, in pixels
+     * @return - a two-dimensional array of ascii chars that represents the rectangle
+     * @throws IOException if the rectangle can not be decoded
+     */
+    public char[][] run(Rectangle rectangle) throws IOException {
+        return convertBrightness(viewport.calculateBrightness(rectangle.x, rectangle.y, rectangle.width,
+                rectangle.height, resolution));
+    }
+
+    /**
+     * Runs the algorithm in shape mode - finds the ascii char whose shape is the closest to the thresholded
+     * bitmap of every sub-image
+     * @return - a two-dimensional array of ascii chars that represents the image
+     */
+    private char[][] runShapes(){
+        ShapeCharMatcher shapeMatcher = new ShapeCharMatcher(imageAsciiConvertor.getCharset());
+        long[][] shapes = new ImageShapes(image, resolution).calculateShapes();
+        int rows = shapes.length;
+        char[][] asciiArt = new char[rows][resolution];
+        for (int row = 0; row < rows; row++){
+            checkCancelled();
+            if(job != null){
+                job.setProgress(row + 1, rows);
+            }
+            for (int col = 0; col < resolution; col++){
+                asciiArt[row][col] = shapeMatcher.getCharByShape(shapes[row],
+                        col * ImageShapes.WORDS_PER_BITMAP);
+            }
+        }
+        return asciiArt;
+    }
+
+    /**
+     * Runs the algorithm in edge mode - the sub-images with a strong edge across them get the glyph of the
+     * edge direction, and the rest are matched by brightness, which is calculated in the same pass over the
+     * pixels as the edges
+     * @return - a two-dimensional array of ascii chars that represents the image
+     */
+    private char[][] runEdges(){
+        ImageEdges imageEdges = new ImageEdges(image, resolution);
+        // the job is checked and told the progress between the bands of the edges
+        byte[][] edges = imageEdges.calculateEdges((bandsDone, bands) -> {
+            checkCancelled();
+            if(job != null){
+                job.setProgress(bandsDone, bands);
+            }
+        });
+        char[][] asciiArt = convertBrightness(imageEdges.calculateBrightness());
+        int rows = edges.length;
+        for (int row = 0; row < rows; row++){
+            for (int col = 0; col < resolution; col++){
+                if(edges[row][col] != ImageEdges.NO_EDGE){
+                    asciiArt[row][col] = EDGE_GLYPHS[edges[row][col]];
+                }
+            }
+        }
+        return asciiArt;
+    }
+
+    /**
+     * finds the matching ascii char of every sub-image brightness, into the reused array of the thread
+     * @param greyImages - the brightness of the sub-images
+     * @return - a two-dimensional array of ascii chars that represents the image
+     */
+    private char[][] convertBrightness(double[][] greyImages){
+        RenderContext context = RenderContext.get();
         int rows = greyImages.length;
         int cols = greyImages[0].length;
-        char[][] asciiArt = new char[rows][cols];
+        char[][] asciiArt = context.asciiArt(rows, cols);
+        ErrorDiffusionDitherer ditherer = ditheringKernel == null ? null :
+                context.ditherer(imageAsciiConvertor, ditheringKernel, cols);
         for( int row =0 ; row < rows; row++){
-            for (int col = 0; col < cols ; col++){
-                asciiArt[row][col] = imageAsciiConvertor.getCharByImageBrightness(greyImages[row][col]);
-            }
+            checkCancelled();
+            convertRow(greyImages[row], asciiArt[row], ditherer);
         }
         return asciiArt;
     }
+
+    /**
+     * finds the matching ascii char of every sub-image brightness in a row
+     * @param greyRow - the brightness of the sub-images in the row
+     * @param asciiRow - the array the chars are written to
+     * @param ditherer - diffuses the matching error between rows, null to match every sub-image on its own
+     */
+    private void convertRow(double[] greyRow, char[] asciiRow, ErrorDiffusionDitherer ditherer){
+        if(ditherer != null){
+            ditherer.ditherRow(greyRow, asciiRow);
+            return;
+        }
+        for (int col = 0; col < greyRow.length ; col++){
+            asciiRow[col] = imageAsciiConvertor.getCharByImageBrightness(greyRow[col]);
+        }
+    }
 }
@@ -0,0 +1,149 @@
+package ascii_art;
+
+import image.Image;
+import image.ImageBrightness;
+import image.ProgressiveBrightness;
+
+/**
+ * Chooses how much of the brightness of an image can be calculated within a time budget.
+ * The brightness is calculated in the passes of ProgressiveBrightness, each one in a finer resolution up to
+ * the wanted one, and a pass is started only if the cost model predicts that it and the matching of its
+ * result finish before the deadline. The model keeps the nanoseconds per sampled pixel and per matched
+ * sub-image, calibrated from every pass and match that ran. The cost per pixel is halved for every pass that
+ * was not started, so a pass is tried again if the estimate that held it back came from a slow cold run.
+ * The passes of an image are kept between renders, so the next render of the same image and resolution
+ * continues from the finest pass reached, until the image is released. An exact brightness that is already
+ * in the ImageBrightness cache is used as it is, without any pass.
+ */
+public class DeadlineScheduler {
+    private static final double NANOS_PER_MILLI = 1e6;
+    /**
+     * the weight of a new measurement in the averages of the model
+     */
+    private static final double SMOOTHING = 0.5;
+    /**
+     * the factor the cost per pixel is multiplied by when a pass was not started
+     */
+    private static final double SKIPPED_PASS_DECAY = 0.5;
+
+    private final long budgetNanos;
+    private double nanosPerSample = 10;
+    private double nanosPerCell = 50;
+
+    private Image image;
+    private int resolution;
+    private ProgressiveBrightness progressiveBrightness;
+    private double[][] finestPass;
+
+    private int renders;
+    private int hits;
+    private long lastNanos;
+    private int lastResolution;
+
+    /**
+     * constructor
+     * @param budgetMillis - the time a render may take, in milliseconds
+     */
+    public DeadlineScheduler(double budgetMillis) {
+        this.budgetNanos = (long) (budgetMillis * NANOS_PER_MILLI);
+    }
+
+    /**
+     * Calculates the finest brightness of the image that is expected to be matched before the deadline.
+     * At least one pass is calculated, even if it is expected to miss the deadline.
+     * @param image - the padded image
+     * @param resolution - the wanted resolution
+     * @param start - the time the render started, in System.nanoTime units
+     * @return - the normalized brightness of the sub-images of the finest pass reached
+     */
+    double[][] brightness(Image image, int resolution, long start) {
+        if (this.image != image || this.resolution != resolution) {
+            releaseImage();
+            this.image = image;
+            this.resolution = resolution;
+        }
+        ImageBrightness exactBrightness = new ImageBrightness(image, resolution);
+        if (exactBrightness.isCalculated()) {
+            progressiveBrightness = null;
+            finestPass = exactBrightness.calculateBrightness();
+            return finestPass;
+        }
+        if (progressiveBrightness == null) {
+            progressiveBrightness = new ProgressiveBrightness(image, resolution);
+            finestPass = null;
+        }
+        while (progressiveBrightness.hasNextPass()) {
+            int passResolution = progressiveBrightness.nextPassResolution();
+            long samples = progressiveBrightness.nextPassSamples();
+            long passCells = (long) passResolution * passResolution * image.getHeight() / image.getWidth();
+            double predicted = samples * nanosPerSample + passCells * nanosPerCell;
+            if (finestPass != null && System.nanoTime() - start + predicted > budgetNanos) {
+                nanosPerSample *= SKIPPED_PASS_DECAY;
+                break;
+            }
+            long passStart = System.nanoTime();
+            finestPass = progressiveBrightness.nextPass();
+            if (samples > 0) {
+                nanosPerSample = smooth(nanosPerSample, (double) (System.nanoTime() - passStart) / samples);
+            }
+        }
+        return finestPass;
+    }
+
+    /**
+     * Drops the image and its passes, e.g. when the shell no longer uses the image. The model is kept.
+     */
+    void releaseImage() {
+        image = null;
+        progressiveBrightness = null;
+        finestPass = null;
+    }
+
+    /**
+     * Records the end of a render - calibrates the matching cost and counts the render as a hit or a miss
+     * @param start - the time the render started, in System.nanoTime units
+     * @param matchStart - the time the matching started, in System.nanoTime units
+     * @param rows - the number of rows that were matched
+     * @param cols - the number of sub-images in a row that were matched
+     */
+    void finish(long start, long matchStart, int rows, int cols) {
+        long end = System.nanoTime();
+        nanosPerCell = smooth(nanosPerCell, (double) (end - matchStart) / Math.max(1, (long) rows * cols));
+        lastNanos = end - start;
+        lastResolution = cols;
+        renders++;
+        if (lastNanos <= budgetNanos) {
+            hits++;
+        }
+    }
+
+    private static double smooth(double average, double measurement) {
+        return average + SMOOTHING * (measurement - average);
+    }
+
+    /**
+     * getter
+     * @return - the resolution of the last render
+     */
+    public int getLastResolution() {
+        return lastResolution;
+    }
+
+    /**
+     * getter
+     * @return - the fraction of the renders that finished before their deadline
+     */
+    public double getHitRate() {
+        return renders == 0 ? 0 : (double) hits / renders;
+    }
+
+    /**
+     * a report of the last render and the renders so far
+     * @return String
+     */
+    @Override
+    public String toString() {
+        return String.format("Resolution %d in %.1f ms of %.1f ms, %d of %d renders met the deadline",
+                lastResolution, lastNanos / NANOS_PER_MILLI, budgetNanos / NANOS_PER_MILLI, hits, renders);
+    }
+}
@@ -26,6 +26,46 @@ public class IncorrectCommandException extends Exception{
      * error for incorrect output command
      */
     private String output = "Did not change output method due to incorrect format.";
+    /**
+     * error for incorrect render command
+     */
+    private String render = "Did not change render mode due to incorrect format.";
+    /**
+     * error for incorrect match command
+     */
+    private String match = "Did not change matching mode due to incorrect format.";
+    /**
+     * error for incorrect dither command
+     */
+    private String dither = "Did not change dithering due to incorrect format.";
+    /**
+     * error for incorrect workers command
+     */
+    private String workers = "Did not change number of workers due to incorrect format.";
+    /**
+     * error for incorrect view command
+     */
+    private String view = "Did not render view due to incorrect format or exceeding boundaries.";
+    /**
+     * error for incorrect deadline command
+     */
+    private String deadline = "Did not change deadline due to incorrect format.";
+    /**
+     * error for incorrect prefetch command
+     */
+    private String prefetch = "Did not change prefetching due to incorrect format.";
+    /**
+     * error for incorrect sample command
+     */
+    private String sample = "Did not change sampling due to incorrect format.";
+    /**
+     * error for incorrect preview command
+     */
+    private String preview = "Did not change preview quality due to incorrect format.";
+    /**
+     * error for incorrect budget command
+     */
+    private String budget = "Did not change memory budget due to incorrect format.";
 
     /**
      * constructor
@@ -51,6 +91,36 @@ public class IncorrectCommandException extends Exception{
         else if (this.type.equals("remove")){
             return this.remove;
         }
+        else if (this.type.equals("render")){
+            return this.render;
+        }
+        else if (this.type.equals("match")){
+            return this.match;
+        }
+        else if (this.type.equals("dither")){
+            return this.dither;
+        }
+        else if (this.type.equals("workers")){
+            return this.workers;
+        }
+        else if (this.type.equals("view")){
+            return this.view;
+        }
+        else if (this.type.equals("deadline")){
+            return this.deadline;
+        }
+        else if (this.type.equals("prefetch")){
+            return this.prefetch;
+        }
+        else if (this.type.equals("sample")){
+            return this.sample;
+        }
+        else if (this.type.equals("preview")){
+            return this.preview;
+        }
+        else if (this.type.equals("budget")){
+            return this.budget;
+        }
         return this.output;
     }
 }
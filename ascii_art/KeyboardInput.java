@@ -1,15 +1,26 @@
 package ascii_art;
 
-import java.util.Scanner;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
 
+/**
+ * Reads the standard input as lines of commands, and as raw bytes in between them, such as an image that
+ * follows an image command. The lines are read byte by byte from one buffered stream, so no bytes that
+ * follow a line are read ahead and lost.
+ */
 class KeyboardInput
 {
     private static KeyboardInput keyboardInputObject = null;
-    private Scanner scanner;
+    private BufferedInputStream input;
     
     private KeyboardInput()
     {
-        this.scanner = new Scanner(System.in);
+        this.input = new BufferedInputStream(System.in);
     }
 
     public static KeyboardInput getObject()
@@ -21,8 +32,49 @@ class KeyboardInput
         return KeyboardInput.keyboardInputObject;
     }
 
+    /**
+     * reads the next line, without the line separator
+     * @return the trimmed line
+     * @throws NoSuchElementException if the input ended, like Scanner.nextLine
+     */
     public static String readLine()
     {
-        return KeyboardInput.getObject().scanner.nextLine().trim();
+        BufferedInputStream input = KeyboardInput.getObject().input;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try
+        {
+            int b = input.read();
+            if(b == -1)
+            {
+                throw new NoSuchElementException("No line found");
+            }
+            while(b != -1 && b != '\n')
+            {
+                line.write(b);
+                b = input.read();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return new String(line.toByteArray(), Charset.defaultCharset()).trim();
+    }
+
+    /**
+     * reads raw bytes that follow the current line
+     * @param length the number of bytes
+     * @return the bytes
+     * @throws IOException if the input ended before all the bytes were read
+     */
+    public static byte[] readBytes(int length) throws IOException
+    {
+        byte[] bytes = KeyboardInput.getObject().input.readNBytes(length);
+        if(bytes.length < length)
+        {
+            throw new EOFException(String.format("Expected %d bytes, the input ended after %d", length,
+                    bytes.length));
+        }
+        return bytes;
     }
-}
\ No newline at end of file
+}
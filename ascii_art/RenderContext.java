@@ -0,0 +1,125 @@
+package ascii_art;
+
+import image.Image;
+import image.ImageBrightness;
+import image_char_matching.ErrorDiffusionDitherer;
+import image_char_matching.SubImgCharMatcher;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The buffers a thread reuses between runs of the ascii Art algorithm - the array of ascii chars, the
+ * brightness of the last image and resolution, and the ditherer. Repeated runs with the same dimensions
+ * allocate nothing once the buffers exist. Every thread has its own context, so the arrays returned by one
+ * run are overwritten by the next run of the same thread.
+ */
+class RenderContext {
+    private static final ThreadLocal<RenderContext> CONTEXTS = ThreadLocal.withInitial(RenderContext::new);
+
+    private char[][] asciiArt = new char[0][];
+    /**
+     * the row arrays of asciiArt, kept for the largest number of rows requested since the cols changed
+     */
+    private char[][] rowPool = new char[0][];
+    private int poolCols;
+
+    private WeakReference<Image> lastImage = new WeakReference<>(null);
+    private int lastResolution;
+    private double[][] lastBrightness;
+
+    private ErrorDiffusionDitherer ditherer;
+    private SubImgCharMatcher dithererMatcher;
+    private ErrorDiffusionDitherer.Kernel dithererKernel;
+    private int dithererCols;
+
+    private RenderContext() {
+    }
+
+    /**
+     * @return - the context of the current thread
+     */
+    static RenderContext get() {
+        return CONTEXTS.get();
+    }
+
+    /**
+     * Returns an array of ascii chars of the given dimensions. The array of the previous call is returned
+     * if it has the same dimensions, and its rows are reused otherwise if they have the same length.
+     * @param rows - the number of rows
+     * @param cols - the number of chars in a row
+     * @return - the array, with the chars of the previous run
+     */
+    char[][] asciiArt(int rows, int cols) {
+        if (asciiArt.length == rows && poolCols == cols) {
+            return asciiArt;
+        }
+        if (poolCols != cols) {
+            rowPool = new char[0][];
+            poolCols = cols;
+        }
+        if (rowPool.length < rows) {
+            char[][] pool = new char[rows][];
+            System.arraycopy(rowPool, 0, pool, 0, rowPool.length);
+            for (int row = rowPool.length; row < rows; row++) {
+                pool[row] = new char[cols];
+            }
+            rowPool = pool;
+        }
+        asciiArt = new char[rows][];
+        System.arraycopy(rowPool, 0, asciiArt, 0, rows);
+        return asciiArt;
+    }
+
+    /**
+     * Returns the brightness of the sub-images of an image. The brightness of the previous call is returned
+     * without looking the image up if it is the same image object in the same resolution.
+     * @param image - the padded image
+     * @param resolution - the number of sub-images in a row
+     * @param job - the job the rows are reported to and that may cancel the calculation, or null
+     * @return - the normalized brightness of every sub-image
+     */
+    double[][] brightness(Image image, int resolution, RenderJob job) {
+        if (lastImage.get() != image || lastResolution != resolution) {
+            ImageBrightness imageBrightness = new ImageBrightness(image, resolution);
+            if (job == null) {
+                lastBrightness = imageBrightness.calculateBrightness();
+            }
+            else {
+                int rows = imageBrightness.getRows();
+                double[][] brightness = new double[rows][];
+                for (int row = 0; row < rows; row++) {
+                    job.checkCancelled();
+                    brightness[row] = imageBrightness.calculateRow(row);
+                    job.setProgress(row + 1, rows);
+                }
+                lastBrightness = brightness;
+            }
+            lastImage = new WeakReference<>(image);
+            lastResolution = resolution;
+        }
+        return lastBrightness;
+    }
+
+    /**
+     * Returns a ditherer with no error left from previous rows, reusing the previous one if it has the same
+     * matcher, kernel and number of cols
+     * @param matcher - the matcher that holds the charset and the brightness values
+     * @param kernel - the kernel used to diffuse the error
+     * @param cols - the number of sub-images in a row
+     * @return - the ditherer
+     */
+    ErrorDiffusionDitherer ditherer(SubImgCharMatcher matcher, ErrorDiffusionDitherer.Kernel kernel,
+                                    int cols) {
+        if (ditherer == null || dithererMatcher != matcher || dithererKernel != kernel ||
+                dithererCols != cols) {
+            ditherer = new ErrorDiffusionDitherer(matcher, kernel, cols);
+            dithererMatcher = matcher;
+            dithererKernel = kernel;
+            dithererCols = cols;
+        }
+        else {
+            ditherer.reset();
+        }
+        return ditherer;
+    }
+}
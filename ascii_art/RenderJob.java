@@ -0,0 +1,132 @@
+package ascii_art;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * A render that runs in the background while the shell keeps reading commands. The algorithm reports the
+ * rows it finished to the job and checks at every row boundary if the job was cancelled, in which case it
+ * stops with a CancellationException before anything reaches the output.
+ * All the jobs run one after the other on the same thread, so they share its RenderContext buffers.
+ */
+class RenderJob {
+    private static final ExecutorService RENDER_THREAD = Executors.newSingleThreadExecutor(work -> {
+        Thread thread = new Thread(work, "ascii-render-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Consumer<RenderJob> work;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Thread thread;
+    private volatile boolean cancelled;
+    private volatile int rowsDone;
+    private volatile int totalRows;
+
+    /**
+     * constructor - the job does not start until start is called
+     * @param work - the render, it is given the job to report to
+     */
+    RenderJob(Consumer<RenderJob> work) {
+        this.work = work;
+    }
+
+    /**
+     * Starts the render in the background, after the previous job finished
+     */
+    void start() {
+        RENDER_THREAD.execute(() -> {
+            thread = Thread.currentThread();
+            try {
+                if (!cancelled) {
+                    work.accept(this);
+                }
+            }
+            finally {
+                synchronized (this) {
+                    thread = null;
+                    Thread.interrupted();
+                }
+                done.countDown();
+            }
+        });
+    }
+
+    /**
+     * Asks the render to stop at the next row boundary, and interrupts it if it waits for an image
+     */
+    void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for the render to finish or to stop
+     */
+    void await() {
+        boolean interrupted = false;
+        while (done.getCount() > 0) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return - true if the render did not finish or stop yet
+     */
+    boolean isRunning() {
+        return done.getCount() > 0;
+    }
+
+    /**
+     * @return - true if the job was cancelled
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called at row boundaries by the algorithm
+     * @throws CancellationException if the job was cancelled
+     */
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Reports the progress of the render
+     * @param rowsDone - the number of rows finished
+     * @param totalRows - the number of rows of the render
+     */
+    void setProgress(int rowsDone, int totalRows) {
+        this.totalRows = totalRows;
+        this.rowsDone = rowsDone;
+    }
+
+    /**
+     * a description of the progress of the job
+     * @return String
+     */
+    @Override
+    public String toString() {
+        if (totalRows == 0) {
+            return "Rendering: preparing the rows";
+        }
+        return String.format("Rendering: %d of %d rows", rowsDone, totalRows);
+    }
+}
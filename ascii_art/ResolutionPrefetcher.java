@@ -0,0 +1,169 @@
+package ascii_art;
+
+import image.Image;
+import image.ImageBrightness;
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates the resolutions next to the one that was rendered - twice it and half of it - on idle
+ * background threads, so the next res step finds them ready. The brightness of a level goes to the
+ * ImageBrightness database, and when a matcher is given the chars of the level are matched as well and kept
+ * here.
+ * The work is limited by a number of threads and by the bytes the prefetched levels may hold, and it is
+ * abandoned, between two rows, once the image or the matcher changes. A render of a level that is still
+ * being prefetched waits for it instead of calculating it again.
+ */
+class ResolutionPrefetcher {
+    private final ExecutorService threads;
+    private final long budgetBytes;
+
+    private Image image;
+    private SubImgCharMatcher matcher;
+    private volatile int generation;
+    private final Map<Integer, char[][]> asciiArts = new ConcurrentHashMap<>();
+    private final Map<Integer, Future<?>> tasks = new HashMap<>();
+    private long usedBytes;
+
+    /**
+     * constructor
+     * @param numThreads - the number of threads the levels are calculated on
+     * @param budgetBytes - the bytes the prefetched levels of an image may hold
+     */
+    ResolutionPrefetcher(int numThreads, long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        this.threads = Executors.newFixedThreadPool(numThreads, work -> {
+            Thread thread = new Thread(work, "ascii-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts calculating the levels next to a resolution that are not calculated yet and fit in the budget.
+     * The work of a previous image or matcher is abandoned first.
+     * @param image - the padded image
+     * @param matcher - the matcher the chars are matched with, or null to calculate only the brightness
+     * @param resolution - the resolution that was rendered
+     * @param minResolution - the smallest legal resolution
+     * @param maxResolution - the largest legal resolution
+     */
+    void prefetch(Image image, SubImgCharMatcher matcher, int resolution, int minResolution,
+                  int maxResolution) {
+        if (image != this.image || matcher != this.matcher) {
+            abandon();
+            this.image = image;
+            this.matcher = matcher;
+        }
+        for (int level : new int[]{resolution * 2, resolution / 2}) {
+            if (level < minResolution || level > maxResolution || tasks.containsKey(level)) {
+                continue;
+            }
+            ImageBrightness imageBrightness = new ImageBrightness(image, level);
+            long cells = (long) imageBrightness.getRows() * level;
+            long bytes = (imageBrightness.isCalculated() ? 0 : cells * Double.BYTES) +
+                    (matcher == null ? 0 : cells * Character.BYTES);
+            if (bytes == 0 || usedBytes + bytes > budgetBytes) {
+                continue;
+            }
+            usedBytes += bytes;
+            int taskGeneration = generation;
+            tasks.put(level, threads.submit(() -> calculateLevel(imageBrightness, matcher, level,
+                    taskGeneration)));
+        }
+    }
+
+    /**
+     * Calculates a level row by row, stopping if the work was abandoned
+     */
+    private void calculateLevel(ImageBrightness imageBrightness, SubImgCharMatcher matcher, int level,
+                                int taskGeneration) {
+        int rows = imageBrightness.getRows();
+        char[][] asciiArt = matcher == null ? null : new char[rows][level];
+        for (int row = 0; row < rows; row++) {
+            if (generation != taskGeneration) {
+                return;
+            }
+            double[] brightnessRow = imageBrightness.calculateRow(row);
+            if (asciiArt != null) {
+                for (int col = 0; col < level; col++) {
+                    asciiArt[row][col] = matcher.getCharByImageBrightness(brightnessRow[col]);
+                }
+            }
+        }
+        synchronized (this) {
+            if (asciiArt != null && generation == taskGeneration) {
+                asciiArts.put(level, asciiArt);
+            }
+        }
+    }
+
+    /**
+     * Returns the prefetched ascii art of a resolution, waiting for it if it is still being calculated
+     * @param image - the padded image
+     * @param matcher - the matcher the chars should be matched with
+     * @param resolution - the resolution
+     * @return - the ascii art, or null if it was not prefetched for this image and matcher
+     */
+    char[][] getAsciiArt(Image image, SubImgCharMatcher matcher, int resolution) {
+        Future<?> task = tasks.get(resolution);
+        if (image != this.image || matcher != this.matcher || task == null) {
+            return null;
+        }
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return asciiArts.get(resolution);
+    }
+
+    /**
+     * Stops the work of the current image and waits for it, and drops the ascii art prefetched for it.
+     * It must be called before the image is released or the matcher is changed.
+     */
+    void abandon() {
+        synchronized (this) {
+            generation++;
+            asciiArts.clear();
+        }
+        boolean interrupted = false;
+        for (Future<?> task : tasks.values()) {
+            while (!task.isDone()) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    // a failed level is just not prefetched
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        tasks.clear();
+        usedBytes = 0;
+        image = null;
+        matcher = null;
+    }
+
+    /**
+     * Abandons the work and stops the threads
+     */
+    void close() {
+        abandon();
+        threads.shutdown();
+    }
+}
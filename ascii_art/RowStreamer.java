@@ -0,0 +1,128 @@
+package ascii_art;
+
+import ascii_output.AsciiRowOutput;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Passes finished rows of ascii chars through a bounded queue to a writer thread that delivers them to an
+ * AsciiRowOutput, so calculating the next rows and writing the previous ones overlap.
+ * The row arrays are recycled through a second queue, so no more than QUEUE_CAPACITY + 2 rows exist.
+ */
+class RowStreamer {
+    private static final int QUEUE_CAPACITY = 64;
+    private static final char[] END_OF_ROWS = new char[0];
+
+    private final BlockingQueue<char[]> rows = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<char[]> freeRows = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 2);
+    private final int cols;
+    private final Thread writer;
+    private volatile RuntimeException writerFailure;
+
+    /**
+     * constructor - starts the writer thread
+     * @param output - the output the rows are delivered to
+     * @param numRows - the number of rows that will be streamed
+     * @param cols - the number of chars in a row
+     */
+    RowStreamer(AsciiRowOutput output, int numRows, int cols) {
+        this.cols = cols;
+        this.writer = new Thread(() -> writeRows(output, numRows, cols), "ascii-row-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return - an empty row array to fill, recycled from the rows that were already written if possible
+     */
+    char[] takeRow() {
+        char[] row = freeRows.poll();
+        return row != null ? row : new char[cols];
+    }
+
+    /**
+     * Queues a finished row, waiting while the writer is QUEUE_CAPACITY rows behind
+     * @param row - a row array received from takeRow
+     */
+    void putRow(char[] row) {
+        if (writerFailure != null) {
+            throw writerFailure;
+        }
+        try {
+            rows.put(row);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+            throw new IllegalStateException("Interrupted while streaming rows", e);
+        }
+    }
+
+    /**
+     * Waits until the writer delivered all the rows
+     * @throws RuntimeException - the failure of the writer thread, if it failed
+     */
+    void finish() {
+        putRow(END_OF_ROWS);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+        }
+        if (writerFailure != null) {
+            throw writerFailure;
+        }
+    }
+
+    /**
+     * Stops the writer thread if it is still running, e.g. when the producer failed before finish. The rows
+     * that were not written yet are discarded, and the output is not ended. Does nothing after finish.
+     */
+    void abort() {
+        if (!writer.isAlive()) {
+            return;
+        }
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The writer thread loop
+     */
+    private void writeRows(AsciiRowOutput output, int numRows, int cols) {
+        try {
+            output.begin(numRows, cols);
+            char[] row = rows.take();
+            while (row != END_OF_ROWS) {
+                output.row(row);
+                freeRows.offer(row);
+                row = rows.take();
+            }
+            output.end();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            writerFailure = e;
+            drainRows();
+        }
+    }
+
+    /**
+     * Discards the queued rows after a failure, until the end of the rows, so the producer never blocks
+     */
+    private void drainRows() {
+        try {
+            char[] row = rows.take();
+            while (row != END_OF_ROWS) {
+                row = rows.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
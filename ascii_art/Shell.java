@@ -6,52 +6,314 @@ import ascii_art.Exceptions.ExceedingBoundariesException;
 import ascii_art.Exceptions.IncorrectCommandException;
 import ascii_art.Exceptions.InvalidCommandExceptions;
 import ascii_output.AsciiOutput;
+import ascii_output.AnsiColorAsciiOutput;
+import ascii_output.AsciiRowOutput;
+import ascii_output.ColorAsciiOutput;
+import ascii_output.BinaryAsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
+import ascii_output.DiffConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_output.ImageAsciiOutput;
 import image.*;
+import image_char_matching.ErrorDiffusionDitherer;
 import image_char_matching.SubImgCharMatcher;
 
+import java.awt.Rectangle;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * a constructor to the user interface to the ascii art algorithm
  */
 public class Shell {
+    private static final String DEFAULT_IMAGE = "cat.jpeg";
+    private static final String STARTUP_TIME_FLAG = "--startup-time";
+    private static final String BATCH_FLAG = "--batch";
+    private static final String NO_DISK_CACHE_FLAG = "--no-disk-cache";
+    private static final String PREVIEW_FLAG = "--preview";
+    private static final String PREVIEW_OFF = "off";
+    private static final String STANDARD_INPUT = "-";
+    private static final char[] DEFAULT_CHARSET = {'0','1','2','3','4','5','6','7','8','9'};
+    private static final int DEFAULT_RESOLUTION = 128;
+    private static final int DEFAULT_PREFETCH_THREADS = 1;
+    private static final int DEFAULT_PREFETCH_MEGABYTES = 64;
+    private static final long BYTES_PER_MEGABYTE = 1 << 20;
+    private static final Path DISK_CACHE_DIRECTORY = Paths.get(System.getProperty("user.home"),
+            ".ascii_art_cache");
+    private static final int DISK_CACHE_MEGABYTES = 256;
+
+    /**
+     * the brightness cache on the disk, null if it is disabled or could not be opened
+     */
+    private static BrightnessDiskCache diskCache;
+    private static final String IMAGE_FILE_ERROR = "Did not execute due to problem with image file.";
+
     private SubImgCharMatcher asciiConvertor;
-    private AsciiArtAlgorithm asciiArtAlgorithm;
+    private FutureTask<SubImgCharMatcher> asciiConvertorTask;
     private KeyboardInput keyboardInput = KeyboardInput.getObject();
     private String input;
-    private Image image;
+    // the image fields are written by the render job while it waits for an image to load, and read by the
+    // commands that run while the job does
+    private volatile Image image;
+    private volatile ImageAdmission imageAdmission;
+    private volatile FutureTask<LoadedImage> imageTask;
+    private String imageFilename = DEFAULT_IMAGE;
+    private volatile String loadedImageFilename;
+    private ImageViewport viewport;
     private int resolution;
-    private PaddingImage paddingImage;
     private AsciiOutput output;
-    private char[][] result;
+    private boolean incremental;
+    private AsciiArtAlgorithm.MatchingMode matchingMode = AsciiArtAlgorithm.MatchingMode.BRIGHTNESS;
+    private ErrorDiffusionDitherer.Kernel ditheringKernel;
+    private int numWorkers;
+    private TileCoordinator tileCoordinator;
+    private DeadlineScheduler deadlineScheduler;
+    private ResolutionPrefetcher resolutionPrefetcher;
+    private boolean sampled;
+    private String imageTaskName = DEFAULT_IMAGE;
+    private RenderJob renderJob;
+    private final boolean background = System.console() != null;
+    private long startTime;
 
     /**
-     * Constructor - creates a PaddingImage, SubImgCharMatcher and AsciiArtAlgorithm according to the
-     * default values
+     * Constructor - sets the default values. Loading the default image and creating the SubImgCharMatcher
+     * are deferred, they start in the background once the prompt is shown or when a command needs them.
      * @throws IOException if there is an issue with the image object
      */
     public Shell() throws IOException {
-        paddingImage = new PaddingImage (new Image("cat.jpeg"));
-        image = paddingImage.padImage();
-        char[] charSet = {'0','1','2','3','4','5','6','7','8','9'};
-        resolution = 128;
-        this.asciiConvertor = new SubImgCharMatcher(charSet);
-        this.asciiArtAlgorithm = new AsciiArtAlgorithm(image, asciiConvertor, resolution);
+        resolution = DEFAULT_RESOLUTION;
+        asciiConvertorTask = new FutureTask<>(() -> new SubImgCharMatcher(DEFAULT_CHARSET.clone()));
+        imageTask = createImageTask(DEFAULT_IMAGE);
         output = new ConsoleAsciiOutput();
-        result = asciiArtAlgorithm.run();
+        resolutionPrefetcher = new ResolutionPrefetcher(DEFAULT_PREFETCH_THREADS,
+                DEFAULT_PREFETCH_MEGABYTES * BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * A padded image and the admission it was loaded with
+     */
+    private static class LoadedImage {
+        private final ImageAdmission admission;
+        private final Image image;
+        private final String filename;
+
+        LoadedImage(ImageAdmission admission, Image image, String filename){
+            this.admission = admission;
+            this.image = image;
+            this.filename = filename;
+        }
+    }
+
+    /**
+     * Creates a task that admits, loads and pads an image. Decisions other than a plain accept are
+     * reported.
+     * @param filename the image file
+     * @return the task
+     */
+    private FutureTask<LoadedImage> createImageTask(String filename){
+        int loadResolution = resolution;
+        return new FutureTask<>(() -> {
+            ImageAdmission admission = new ImageAdmission(filename, loadResolution);
+            if(admission.getDecision() != ImageAdmission.Decision.ACCEPT &&
+                    admission.getDecision() != ImageAdmission.Decision.PREVIEW){
+                System.out.println(admission);
+            }
+            try {
+                Image paddedImage = new PaddingImage(admission.load()).padImage();
+                if(diskCache != null){
+                    ImageBrightness.attachDiskCache(paddedImage, diskCache,
+                            BrightnessDiskCache.digest(Paths.get(filename)), admission.getSubsampling());
+                }
+                return new LoadedImage(admission, paddedImage, filename);
+            }
+            catch (IOException | RuntimeException e){
+                admission.release();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Creates a task that decodes and pads an image that was read into memory. It is not admitted against
+     * the memory budget, its bytes are already in memory.
+     * @param bytes the encoded image
+     * @return the task
+     */
+    private static FutureTask<LoadedImage> createImageTask(byte[] bytes){
+        return new FutureTask<>(() -> {
+            Image paddedImage = new PaddingImage(new Image(bytes)).padImage();
+            if(diskCache != null){
+                ImageBrightness.attachDiskCache(paddedImage, diskCache, BrightnessDiskCache.digest(bytes), 1);
+            }
+            return new LoadedImage(null, paddedImage, null);
+        });
+    }
+
+    /**
+     * Returns the memory of the current image to the admission budget, and releases its off-heap pixels
+     */
+    private void releaseImage(){
+        if(resolutionPrefetcher != null){
+            resolutionPrefetcher.abandon();
+        }
+        if(deadlineScheduler != null){
+            deadlineScheduler.releaseImage();
+        }
+        if(image != null){
+            forgetImage(image);
+        }
+        if(imageAdmission != null){
+            imageAdmission.release();
+        }
+        if(image instanceof OffHeapImage){
+            ((OffHeapImage) image).close();
+        }
+    }
+
+    /**
+     * Removes an image from the caches of the calculations, which would otherwise keep its pixels after
+     * its memory was returned to the budget
+     * @param image the padded image that is no longer used
+     */
+    private static void forgetImage(Image image){
+        ImageBrightness.forget(image);
+        ImageShapes.forget(image);
+        ImageEdges.forget(image);
+    }
+
+    /**
+     * Releases the image of a load task that was superseded by another image command, once it finishes
+     * @param task the superseded task
+     */
+    private static void discardImageTask(FutureTask<LoadedImage> task){
+        startInBackground(new FutureTask<Void>(() -> {
+            LoadedImage loadedImage = awaitTask(task);
+            if(loadedImage.image != null){
+                forgetImage(loadedImage.image);
+            }
+            if(loadedImage.admission != null){
+                loadedImage.admission.release();
+            }
+            if(loadedImage.image instanceof OffHeapImage){
+                ((OffHeapImage) loadedImage.image).close();
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Runs a deferred task on a background thread
+     * @param task the task to run
+     */
+    private static void startInBackground(FutureTask<?> task){
+        Thread thread = new Thread(task, "shell-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for a deferred task, running it on this thread if no background thread started it yet
+     * @param task the task
+     * @return the result of the task
+     * @throws IOException if the task failed with an IOException
+     */
+    private static <T> T awaitTask(FutureTask<T> task) throws IOException {
+        task.run();
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e){
+            if(e.getCause() instanceof IOException){
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * getter of the padded image, waits for the last image command to finish loading it, and loads it again
+     * if it is a preview that is too coarse for the resolution. If loading fails the previous image is kept.
+     * @return the current image
+     * @throws IOException if loading failed and there is no previous image
+     * @throws CancellationException if the render job that waits for the image was cancelled, the image
+     * keeps loading
+     */
+    private Image getImage() throws IOException {
+        while(imageTask != null){
+            FutureTask<LoadedImage> task = imageTask;
+            try {
+                LoadedImage loadedImage = awaitTask(task);
+                imageTask = null;
+                releaseImage();
+                image = loadedImage.image;
+                loadedImageFilename = loadedImage.filename;
+                imageAdmission = loadedImage.admission;
+                if(imageAdmission != null && imageAdmission.isTooCoarseFor(resolution)){
+                    // the resolution went up while the preview was loading
+                    imageTask = createImageTask(loadedImageFilename);
+                }
+            }
+            catch (IOException e){
+                if(e.getCause() instanceof InterruptedException){
+                    throw new CancellationException();
+                }
+                imageTask = null;
+                if(image == null){
+                    throw e;
+                }
+                System.out.println(IMAGE_FILE_ERROR);
+            }
+        }
+        if(image == null){
+            throw new IOException("No image loaded");
+        }
+        return image;
+    }
+
+    /**
+     * getter of the SubImgCharMatcher, waits for it to be created
+     * @return the current SubImgCharMatcher
+     * @throws IOException never, the matcher does not read files
+     */
+    private SubImgCharMatcher getAsciiConvertor() throws IOException {
+        if(asciiConvertor == null){
+            asciiConvertor = awaitTask(asciiConvertorTask);
+        }
+        return asciiConvertor;
+    }
+
+    /**
+     * Creates an AsciiArtAlgorithm for the current image, charset and resolution with the current modes
+     * @return the new algorithm
+     * @throws IOException if there is no image
+     */
+    private AsciiArtAlgorithm createAlgorithm() throws IOException {
+        AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm(getImage(), getAsciiConvertor(), resolution);
+        algorithm.setMatchingMode(matchingMode);
+        algorithm.setDithering(ditheringKernel);
+        return algorithm;
     }
 
     /**
      * Changes the resolution according to the given command
      * @throws IncorrectCommandException if there is an issue with the command is not legal
      * @throws ExceedingBoundariesException if the resolution exceeds boundaries
+     * @throws IOException if there is no image
      */
-    private void setResolution() throws IncorrectCommandException, ExceedingBoundariesException {
-        int minCharsInRow = Math.max(1, image.getWidth()/image.getHeight());
+    private void setResolution() throws IncorrectCommandException, ExceedingBoundariesException,
+            IOException {
         int newResolution;
         if(input.equals("res up")){
             newResolution= resolution*2;
@@ -62,34 +324,112 @@ public class Shell {
         else{
             throw new IncorrectCommandException("res");
         }
-        if((newResolution < minCharsInRow)|| (newResolution > image.getWidth())) {
+        Image image = getImage();
+        int minCharsInRow = Math.max(1, image.getWidth()/image.getHeight());
+        if((newResolution < minCharsInRow)|| (newResolution > fullWidth(image))) {
             throw new ExceedingBoundariesException();
         }
         else{
             resolution = newResolution;
-            asciiArtAlgorithm = new AsciiArtAlgorithm(image, asciiConvertor, resolution);
             System.out.println(String.format("Resolution set to %s", resolution));
+            if(imageAdmission != null && imageAdmission.isTooCoarseFor(resolution)){
+                imageTask = createImageTask(loadedImageFilename);
+                imageTaskName = loadedImageFilename;
+                startInBackground(imageTask);
+                return;
+            }
+            prefetchNeighbours();
         }
     }
 
     /**
-     * Changes the image to an image the user selects
-     * @throws IOException if there is an issue with the image file
+     * the width an image has when it is decoded in full - a preview is loaded again finer when the
+     * resolution needs it
+     * @param image the current image
+     * @return the padded width of the full image
+     */
+    private int fullWidth(Image image){
+        if(imageAdmission != null && imageAdmission.getDecision() == ImageAdmission.Decision.PREVIEW){
+            return image.getWidth() * imageAdmission.getSubsampling();
+        }
+        return image.getWidth();
+    }
+
+    /**
+     * Changes the quality bound of the previews - "preview n" decodes the next images subsampled while every
+     * cell keeps at least n pixels in a row, "preview off" decodes them in full
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setPreview() throws IncorrectCommandException{
+        int cellSize = parsePreviewCellSize(input.substring("preview ".length()));
+        if(cellSize < 0){
+            throw new IncorrectCommandException("preview");
+        }
+        ImageAdmission.setPreviewCellSize(cellSize);
+    }
+
+    /**
+     * parses the quality bound of the previews
+     * @param value a number of pixels, or off
+     * @return the minimal cell size, 0 for off, or -1 if the value is not legal
+     */
+    private static int parsePreviewCellSize(String value){
+        if(value.equals(PREVIEW_OFF)){
+            return 0;
+        }
+        try {
+            int cellSize = Integer.parseInt(value);
+            return cellSize > 0 ? cellSize : -1;
+        }
+        catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Changes the image to an image the user selects. The image starts loading in the background, the
+     * previous image is kept if loading fails. "image - length" reads the image from the next length bytes
+     * of the standard input.
      * @throws InvalidCommandExceptions if there is an issue with the command is not legal
+     * @throws IOException if the bytes of the image can not be read from the standard input
      */
-    private void setImage() throws IOException, InvalidCommandExceptions {
+    private void setImage() throws InvalidCommandExceptions, IOException {
         String[] inputParts = input.split(" ");
-        if (inputParts.length != 2){
+        FutureTask<LoadedImage> newImageTask;
+        String newImageFilename;
+        if (inputParts.length == 3 && inputParts[1].equals(STANDARD_INPUT)){
+            int length;
+            try {
+                length = Integer.parseInt(inputParts[2]);
+            }
+            catch (NumberFormatException e){
+                throw new InvalidCommandExceptions();
+            }
+            if(length <= 0){
+                throw new InvalidCommandExceptions();
+            }
+            newImageTask = createImageTask(KeyboardInput.readBytes(length));
+            newImageFilename = null;
+            imageTaskName = "from the standard input";
+        }
+        else if (inputParts.length == 2 && !inputParts[1].equals(STANDARD_INPUT)){
+            newImageTask = createImageTask(inputParts[1]);
+            newImageFilename = inputParts[1];
+            imageTaskName = inputParts[1];
+        }
+        else {
             throw new InvalidCommandExceptions();
         }
-        try {
-            paddingImage = new PaddingImage(new Image(inputParts[1]));
-            image = paddingImage.padImage();
-            asciiArtAlgorithm = new AsciiArtAlgorithm(image, asciiConvertor, resolution);
+        if(imageTask != null){
+            discardImageTask(imageTask);
         }
-        catch(IOException e){
-            System.out.println("Did not execute due to problem with image file.");
+        if(resolutionPrefetcher != null){
+            resolutionPrefetcher.abandon();
         }
+        imageTask = newImageTask;
+        startInBackground(imageTask);
+        imageFilename = newImageFilename;
+        viewport = null;
     }
 
     /**
@@ -103,16 +443,179 @@ public class Shell {
         else if (input.equals("output console")){
             output = new ConsoleAsciiOutput();
         }
+        else if (input.equals("output binary")){
+            output = new BinaryAsciiOutput("out.ascb");
+        }
+        else if (input.equals("output diff")){
+            output = new DiffConsoleAsciiOutput();
+        }
+        else if (input.equals("output color")){
+            output = new AnsiColorAsciiOutput();
+        }
+        else if (input.equals("output png")){
+            output = new ImageAsciiOutput("out.png", "png");
+        }
         else {
             throw new IncorrectCommandException("output");
         }
     }
 
+    /**
+     * Changes the way the asciiArt command renders - incremental delivers coarse passes to the output before
+     * the final one, full delivers only the final ascii art
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setRender() throws IncorrectCommandException{
+        if(input.equals("render incremental")){
+            incremental = true;
+        }
+        else if (input.equals("render full")){
+            incremental = false;
+        }
+        else {
+            throw new IncorrectCommandException("render");
+        }
+    }
+
+    /**
+     * Changes the way sub-images are matched to ascii chars - by brightness, by shape or
+     * by brightness with directional glyphs on the edges
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setMatchingMode() throws IncorrectCommandException{
+        if(input.equals("match brightness")){
+            matchingMode = AsciiArtAlgorithm.MatchingMode.BRIGHTNESS;
+        }
+        else if (input.equals("match shape")){
+            matchingMode = AsciiArtAlgorithm.MatchingMode.SHAPE;
+        }
+        else if (input.equals("match edge")){
+            matchingMode = AsciiArtAlgorithm.MatchingMode.EDGE;
+        }
+        else {
+            throw new IncorrectCommandException("match");
+        }
+    }
+
+    /**
+     * Changes the dithering of the brightness matching - none, floyd (Floyd-Steinberg) or atkinson
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setDithering() throws IncorrectCommandException{
+        if(input.equals("dither none")){
+            ditheringKernel = null;
+        }
+        else if (input.equals("dither floyd")){
+            ditheringKernel = ErrorDiffusionDitherer.Kernel.FLOYD_STEINBERG;
+        }
+        else if (input.equals("dither atkinson")){
+            ditheringKernel = ErrorDiffusionDitherer.Kernel.ATKINSON;
+        }
+        else {
+            throw new IncorrectCommandException("dither");
+        }
+    }
+
+    /**
+     * Changes the number of worker processes the brightness matching runs on, 0 runs it in this process
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setWorkers() throws IncorrectCommandException{
+        int newNumWorkers;
+        try {
+            newNumWorkers = Integer.parseInt(input.substring("workers ".length()));
+        }
+        catch (NumberFormatException e){
+            throw new IncorrectCommandException("workers");
+        }
+        if(newNumWorkers < 0){
+            throw new IncorrectCommandException("workers");
+        }
+        if(newNumWorkers != numWorkers && tileCoordinator != null){
+            tileCoordinator.close();
+            tileCoordinator = null;
+        }
+        numWorkers = newNumWorkers;
+    }
+
+    /**
+     * Runs the brightness matching on the worker processes, starting them on first use. If the workers
+     * fail they are closed and the matching runs in this process. A cancelled job leaves the workers
+     * running for the next render.
+     * @param job the background job of the render, or null if it runs in the foreground
+     * @return the ascii art, or null if it could not be made by the workers
+     * @throws IOException if there is no image
+     * @throws CancellationException if the job was cancelled while the workers converted the image
+     */
+    private char[][] runOnWorkers(RenderJob job) throws IOException {
+        Image image = getImage();
+        char[] charset = getAsciiConvertor().getCharset();
+        try {
+            if(tileCoordinator == null){
+                tileCoordinator = new TileCoordinator(numWorkers);
+            }
+            return tileCoordinator.run(image, charset, resolution);
+        }
+        catch (InterruptedIOException e){
+            throw new CancellationException();
+        }
+        catch (IOException e){
+            if(job != null && job.isCancelled()){
+                throw new CancellationException();
+            }
+            System.out.println("Workers failed, rendering locally.");
+            if(tileCoordinator != null){
+                tileCoordinator.close();
+                tileCoordinator = null;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Renders a rectangle of the image file to the output, in the current resolution. Only the part of the
+     * file under the rectangle is decoded, so it does not wait for the whole image to load.
+     * @throws IncorrectCommandException if the command is not legal or the rectangle exceeds the image
+     * @throws EmptyCharsetException if the charset is empty
+     * @throws IOException if there is an issue with the image file
+     */
+    private void view() throws IncorrectCommandException, EmptyCharsetException, IOException {
+        String[] inputParts = input.split(" ");
+        if(inputParts.length != 5){
+            throw new IncorrectCommandException("view");
+        }
+        Rectangle rectangle;
+        try {
+            rectangle = new Rectangle(Integer.parseInt(inputParts[1]), Integer.parseInt(inputParts[2]),
+                    Integer.parseInt(inputParts[3]), Integer.parseInt(inputParts[4]));
+        }
+        catch (NumberFormatException e){
+            throw new IncorrectCommandException("view");
+        }
+        if(imageFilename == null){
+            throw new IOException("The image was not read from a file");
+        }
+        if(viewport == null){
+            viewport = new ImageViewport(imageFilename);
+        }
+        if(rectangle.x < 0 || rectangle.y < 0 || rectangle.width < resolution || rectangle.height <= 0 ||
+                rectangle.x >= viewport.getImageWidth() || rectangle.y >= viewport.getImageHeight()){
+            throw new IncorrectCommandException("view");
+        }
+        SubImgCharMatcher asciiConvertor = getAsciiConvertor();
+        if(asciiConvertor.getCharset().length == 0){
+            throw new EmptyCharsetException();
+        }
+        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(viewport, asciiConvertor, resolution);
+        asciiArtAlgorithm.setDithering(ditheringKernel);
+        output.out(asciiArtAlgorithm.run(rectangle));
+    }
+
     /**
      * Prints the ascii char set the algorithm is currently using
      */
-    private void chars(){
-        char[] charSet = asciiConvertor.getCharset();
+    private void chars() throws IOException {
+        char[] charSet = getAsciiConvertor().getCharset();
         for (char asciiChar : charSet){
             System.out.print(asciiChar + " ");
         }
@@ -144,7 +647,11 @@ public class Shell {
      * add an ascii char to the charset used in SubImgCharMatcher
      * @throws IncorrectCommandException if there is an issue with the command is not legal
      */
-    private void add() throws IncorrectCommandException{
+    private void add() throws IncorrectCommandException, IOException {
+            SubImgCharMatcher asciiConvertor = getAsciiConvertor();
+            if(resolutionPrefetcher != null){
+                resolutionPrefetcher.abandon();
+            }
 
             if (input.length() == 5) {
                 char newChar = input.charAt(4);
@@ -171,7 +678,11 @@ public class Shell {
      * removes an ascii char to the charset used in SubImgCharMatcher
      * @throws IncorrectCommandException if there is an issue with the command is not legal
      */
-    private void remove() throws IncorrectCommandException{
+    private void remove() throws IncorrectCommandException, IOException {
+        SubImgCharMatcher asciiConvertor = getAsciiConvertor();
+        if(resolutionPrefetcher != null){
+            resolutionPrefetcher.abandon();
+        }
         if (input.length() == 8){
             char charToRemove = input.charAt(7);
             asciiConvertor.removeChar(charToRemove);
@@ -197,41 +708,368 @@ public class Shell {
         }
     }
 
+    /**
+     * Renders the current image to the current output, in the current modes. In a terminal the render runs
+     * as a background job, so the shell keeps reading commands while it runs.
+     * @throws EmptyCharsetException if the charset is empty
+     * @throws IOException if there is no image
+     */
+    private void asciiArt() throws EmptyCharsetException, IOException {
+        if(getAsciiConvertor().getCharset().length == 0){
+            throw new EmptyCharsetException();
+        }
+        if(!background){
+            render(null);
+            return;
+        }
+        renderJob = new RenderJob(this::runJob);
+        renderJob.start();
+    }
+
+    /**
+     * The body of a background render - reports the errors of the render. A cancelled render prints
+     * nothing. The prompt is printed only by the command loop.
+     * @param job the job of the render
+     */
+    private void runJob(RenderJob job){
+        try {
+            render(job);
+        }
+        catch (CancellationException e){
+            // the render was cancelled by a command, which already reported it
+        }
+        catch (IOException e){
+            if(!job.isCancelled()){
+                System.out.println(IMAGE_FILE_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Renders the current image to the current output, in the current modes
+     * @param job the background job of the render, or null if it runs in the foreground. Rows are not
+     *            streamed to the output in a job, since a cancelled job must not leave half a picture.
+     * @throws IOException if there is no image
+     */
+    private void render(RenderJob job) throws IOException {
+        AsciiArtAlgorithm asciiArtAlgorithm = createAlgorithm();
+        asciiArtAlgorithm.setJob(job);
+        boolean brightnessOnly = !incremental && !(output instanceof ColorAsciiOutput) &&
+                matchingMode == AsciiArtAlgorithm.MatchingMode.BRIGHTNESS;
+        char[][] prefetchedPic = null;
+        if(resolutionPrefetcher != null && brightnessOnly && deadlineScheduler == null &&
+                ditheringKernel == null){
+            prefetchedPic = resolutionPrefetcher.getAsciiArt(getImage(), getAsciiConvertor(), resolution);
+        }
+        boolean sampledRun = sampled && prefetchedPic == null && brightnessOnly &&
+                deadlineScheduler == null && ditheringKernel == null;
+        char[][] workersPic = null;
+        if(prefetchedPic == null && !sampledRun && numWorkers > 0 && brightnessOnly &&
+                deadlineScheduler == null && ditheringKernel == null){
+            workersPic = runOnWorkers(job);
+            if(job != null){
+                job.checkCancelled();
+            }
+        }
+        if(prefetchedPic != null){
+            output.out(prefetchedPic);
+        }
+        else if(sampledRun){
+            char[][] sampledPic = asciiArtAlgorithm.runSampled();
+            if(job != null){
+                job.checkCancelled();
+            }
+            output.out(sampledPic);
+            System.out.println(asciiArtAlgorithm.getSamplingReport());
+        }
+        else if(workersPic != null){
+            output.out(workersPic);
+        }
+        else if(deadlineScheduler != null && brightnessOnly){
+            char[][] deadlinePic = asciiArtAlgorithm.run(deadlineScheduler);
+            if(job != null){
+                job.checkCancelled();
+            }
+            output.out(deadlinePic);
+            System.out.println(deadlineScheduler);
+        }
+        else if(output instanceof ColorAsciiOutput){
+            asciiArtAlgorithm.run((ColorAsciiOutput) output);
+        }
+        else if(incremental){
+            asciiArtAlgorithm.runProgressive(output);
+        }
+        else if(output instanceof AsciiRowOutput && job == null){
+            asciiArtAlgorithm.run((AsciiRowOutput) output);
+        }
+        else{
+            char[][] finalPic = asciiArtAlgorithm.run();
+            if(job != null){
+                job.checkCancelled();
+            }
+            output.out(finalPic);
+        }
+        prefetchNeighbours();
+    }
+
+    /**
+     * Starts calculating the resolutions a res step goes to from the current one, if prefetching is on and
+     * the chars are matched by brightness. The chars are prefetched too when there is no dithering.
+     * @throws IOException if there is no image
+     */
+    private void prefetchNeighbours() throws IOException {
+        if(resolutionPrefetcher == null || matchingMode != AsciiArtAlgorithm.MatchingMode.BRIGHTNESS){
+            return;
+        }
+        Image image = getImage();
+        // a preview is loaded again for a finer level, so it is not prefetched from the preview
+        int maxResolution = imageAdmission != null && imageAdmission.isTooCoarseFor(resolution * 2) ?
+                resolution : image.getWidth();
+        resolutionPrefetcher.prefetch(image, ditheringKernel == null ? getAsciiConvertor() : null, resolution,
+                Math.max(1, image.getWidth()/image.getHeight()), maxResolution);
+    }
+
+    /**
+     * Turns the sampled brightness on or off - "sample on" estimates the brightness of every sub-image from
+     * a part of its pixels, when the chars are matched by brightness without dithering
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setSampling() throws IncorrectCommandException{
+        if(input.equals("sample on")){
+            sampled = true;
+        }
+        else if(input.equals("sample off")){
+            sampled = false;
+        }
+        else{
+            throw new IncorrectCommandException("sample");
+        }
+    }
+
+    /**
+     * Changes the number of threads and the memory the neighbouring resolutions are prefetched with,
+     * "prefetch off" stops prefetching
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setPrefetch() throws IncorrectCommandException{
+        ResolutionPrefetcher newPrefetcher = null;
+        if(!input.equals("prefetch off")){
+            String[] inputParts = input.split(" ");
+            if(inputParts.length != 3){
+                throw new IncorrectCommandException("prefetch");
+            }
+            int numThreads;
+            int megabytes;
+            try {
+                numThreads = Integer.parseInt(inputParts[1]);
+                megabytes = Integer.parseInt(inputParts[2]);
+            }
+            catch (NumberFormatException e){
+                throw new IncorrectCommandException("prefetch");
+            }
+            if(numThreads < 1 || megabytes < 0){
+                throw new IncorrectCommandException("prefetch");
+            }
+            newPrefetcher = new ResolutionPrefetcher(numThreads, megabytes * BYTES_PER_MEGABYTE);
+        }
+        if(resolutionPrefetcher != null){
+            resolutionPrefetcher.close();
+        }
+        resolutionPrefetcher = newPrefetcher;
+    }
+
+    /**
+     * Changes the memory budgets the images are admitted with - "budget heap offHeap" in megabytes, and
+     * optionally the minimal cell size in pixels a downsampled image keeps
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setBudget() throws IncorrectCommandException{
+        String[] inputParts = input.split(" ");
+        if(inputParts.length != 3 && inputParts.length != 4){
+            throw new IncorrectCommandException("budget");
+        }
+        long heapMegabytes;
+        long offHeapMegabytes;
+        int minCellSize = 0;
+        try {
+            heapMegabytes = Long.parseLong(inputParts[1]);
+            offHeapMegabytes = Long.parseLong(inputParts[2]);
+            if(inputParts.length == 4){
+                minCellSize = Integer.parseInt(inputParts[3]);
+            }
+        }
+        catch (NumberFormatException e){
+            throw new IncorrectCommandException("budget");
+        }
+        if(heapMegabytes < 0 || offHeapMegabytes < 0 || (inputParts.length == 4 && minCellSize < 1)){
+            throw new IncorrectCommandException("budget");
+        }
+        ImageAdmission.setBudget(heapMegabytes * BYTES_PER_MEGABYTE, offHeapMegabytes * BYTES_PER_MEGABYTE);
+        if(inputParts.length == 4){
+            ImageAdmission.setMinCellSize(minCellSize);
+        }
+    }
+
+    /**
+     * Sets the time budget of a render, "deadline off" renders in the full resolution however long it takes
+     * @throws IncorrectCommandException if there is an issue with the command is not legal
+     */
+    private void setDeadline() throws IncorrectCommandException{
+        if(input.equals("deadline off")){
+            deadlineScheduler = null;
+            return;
+        }
+        double budgetMillis;
+        try {
+            budgetMillis = Double.parseDouble(input.substring("deadline ".length()));
+        }
+        catch (NumberFormatException e){
+            throw new IncorrectCommandException("deadline");
+        }
+        if(!(budgetMillis > 0)){
+            throw new IncorrectCommandException("deadline");
+        }
+        deadlineScheduler = new DeadlineScheduler(budgetMillis);
+    }
+
+    /**
+     * Cancels the running render job, if there is one, and waits for it to stop. Commands that change what
+     * a render uses call it first, so the job never sees a half changed shell.
+     */
+    private void supersedeRenderJob(){
+        if(renderJob != null){
+            renderJob.cancel();
+            renderJob.await();
+            renderJob = null;
+        }
+    }
+
+    /**
+     * Cancels the running render job and the image that is loading. The image that was loaded before is
+     * kept, a load that is already decoding is released once it finishes.
+     */
+    private void cancel(){
+        boolean cancelled = renderJob != null && renderJob.isRunning();
+        supersedeRenderJob();
+        FutureTask<LoadedImage> task = imageTask;
+        if(task != null && !task.isDone()){
+            discardImageTask(task);
+            imageTask = null;
+            imageFilename = loadedImageFilename;
+            viewport = null;
+            cancelled = true;
+        }
+        System.out.println(cancelled ? "Cancelled." : "No job is running.");
+    }
+
+    /**
+     * Prints the image that is loading and the progress of the running render job
+     */
+    private void status(){
+        boolean running = false;
+        FutureTask<LoadedImage> task = imageTask;
+        if(task != null && !task.isDone()){
+            System.out.println("Loading image " + imageTaskName);
+            running = true;
+        }
+        RenderJob job = renderJob;
+        if(job != null && job.isRunning()){
+            System.out.println(job);
+            running = true;
+        }
+        if(!running){
+            System.out.println("No job is running.");
+        }
+    }
+
     /**
      * runs the user interface - reads input and make actions accordingly
      * @throws IOException if there is an issue with the image file
      */
     public void run() throws IOException {
+        if(startTime != 0){
+            System.out.println(String.format("Time to prompt: %.1f ms", (System.nanoTime() - startTime)/1e6));
+        }
         System.out.print(">>> ");
+        startInBackground(asciiConvertorTask);
+        if(imageTask != null){
+            startInBackground(imageTask);
+        }
         input = keyboardInput.readLine();
         while(!input.equals("exit")){
             try{
             if(input.contains("res")){
+                supersedeRenderJob();
                 setResolution();
             }
             else if(input.startsWith("image")){
+                supersedeRenderJob();
                 setImage();
             }
             else if (input.equals("chars")) {
                 chars();
             }
             else if (input.startsWith("add ")){
+                supersedeRenderJob();
                 add();
             }
             else if (input.startsWith("remove ")){
+                supersedeRenderJob();
                 remove();
             }
             else if(input.startsWith("output ")){
+                supersedeRenderJob();
                 setOutput();
             }
+            else if(input.startsWith("render ")){
+                supersedeRenderJob();
+                setRender();
+            }
+            else if(input.startsWith("match ")){
+                supersedeRenderJob();
+                setMatchingMode();
+            }
+            else if(input.startsWith("dither ")){
+                supersedeRenderJob();
+                setDithering();
+            }
+            else if(input.startsWith("workers ")){
+                supersedeRenderJob();
+                setWorkers();
+            }
+            else if(input.startsWith("deadline ")){
+                supersedeRenderJob();
+                setDeadline();
+            }
+            else if(input.startsWith("sample ")){
+                supersedeRenderJob();
+                setSampling();
+            }
+            else if(input.startsWith("budget ")){
+                supersedeRenderJob();
+                setBudget();
+            }
+            else if(input.startsWith("preview ")){
+                supersedeRenderJob();
+                setPreview();
+            }
+            else if(input.startsWith("prefetch ")){
+                supersedeRenderJob();
+                setPrefetch();
+            }
+            else if(input.startsWith("view ")){
+                supersedeRenderJob();
+                view();
+            }
             else if (input.equals("asciiArt")){
-                if(asciiConvertor.getCharset().length == 0){
-                    throw new EmptyCharsetException();
-                }
-                else{
-                    char[][] finalPic = asciiArtAlgorithm.run();
-                    output.out(finalPic);
-                }
+                supersedeRenderJob();
+                asciiArt();
+            }
+            else if (input.equals("cancel")){
+                cancel();
+            }
+            else if (input.equals("status")){
+                status();
             }
             else{
                 throw new InvalidCommandExceptions();
@@ -249,19 +1087,130 @@ public class Shell {
             catch (EmptyCharsetException e){
                 System.out.println("Did not execute. Charset is empty.");
             }
+            catch (IOException e){
+                System.out.println(IMAGE_FILE_ERROR);
+            }
             System.out.print(">>> ");
             input = keyboardInput.readLine();
         }
+        if(renderJob != null){
+            renderJob.await();
+        }
+        if(resolutionPrefetcher != null){
+            resolutionPrefetcher.close();
+        }
+        if(tileCoordinator != null){
+            tileCoordinator.close();
+        }
         System.exit(0);;
     }
 
+    /**
+     * Makes the shell print the time that passed from the given start until the prompt is shown
+     * @param startTime the start time, in System.nanoTime units
+     */
+    public void reportStartupTime(long startTime){
+        this.startTime = startTime;
+    }
+
+    /**
+     * Renders a single image to the console with the default charset, without the user interface. A coarse
+     * resolution decodes a preview, like the image command.
+     * @param source the image file, or - to read the image from the standard input until it ends
+     * @param resolution the number of chars in a row
+     * @throws IOException if there is an issue with reading the image
+     */
+    private static void runBatch(String source, int resolution) throws IOException {
+        byte[] bytes = source.equals(STANDARD_INPUT) ? System.in.readAllBytes() :
+                Files.readAllBytes(Paths.get(source));
+        SubImgCharMatcher asciiConvertor = new SubImgCharMatcher(DEFAULT_CHARSET.clone());
+        int previewCellSize = ImageAdmission.getPreviewCellSize();
+        int subsampling = previewCellSize == 0 || resolution < 1 ? 1 :
+                Image.subsamplingFactor(Image.readSize(bytes).width, resolution, previewCellSize);
+        byte[] digest = null;
+        if(diskCache != null){
+            digest = BrightnessDiskCache.digest(bytes);
+            double[][] brightness = diskCache.get(digest, subsampling, resolution);
+            if(brightness != null){
+                AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(asciiConvertor, resolution);
+                new ConsoleAsciiOutput().out(asciiArtAlgorithm.run(brightness));
+                return;
+            }
+        }
+        Image decodedImage = subsampling == 1 ? new Image(bytes) :
+                new Image(bytes, resolution, previewCellSize);
+        Image paddedImage = new PaddingImage(decodedImage).padImage();
+        if(resolution < 1 || resolution > paddedImage.getWidth()){
+            System.out.println("Did not execute due to exceeding boundaries.");
+            return;
+        }
+        if(digest != null){
+            ImageBrightness.attachDiskCache(paddedImage, diskCache, digest, subsampling);
+        }
+        new ConsoleAsciiOutput().out(new AsciiArtAlgorithm(paddedImage, asciiConvertor, resolution).run());
+    }
+
+    /**
+     * Opens the brightness cache on the disk, the shell runs without it if it can not be opened
+     */
+    private static void openDiskCache(){
+        try {
+            diskCache = new BrightnessDiskCache(DISK_CACHE_DIRECTORY,
+                    DISK_CACHE_MEGABYTES * BYTES_PER_MEGABYTE);
+        }
+        catch (IOException e){
+            diskCache = null;
+        }
+    }
+
     /**
      * the main function - creates a Shell objects and runs the algorithm
-     * @param args does not receive arguments
+     * @param args --startup-time to print the time it took to show the prompt, or
+     *             --batch &lt;file|-&gt; [resolution] to render a single image and exit, and
+     *             --no-disk-cache to calculate the brightness without the cache on the disk, and
+     *             --preview &lt;n|off&gt; to decode the images of coarse resolutions keeping n pixels in a
+     *             row of a cell, or in full
      * @throws IOException is there is an issue with reading the image inside the shell
      */
     public static void main(String[] args) throws IOException {
+        if(!Arrays.asList(args).contains(NO_DISK_CACHE_FLAG)){
+            openDiskCache();
+        }
+        int previewIndex = Arrays.asList(args).indexOf(PREVIEW_FLAG);
+        if(previewIndex >= 0){
+            int cellSize = previewIndex + 1 < args.length ? parsePreviewCellSize(args[previewIndex + 1]) : -1;
+            if(cellSize < 0){
+                System.out.println("Did not execute due to incorrect command.");
+                return;
+            }
+            ImageAdmission.setPreviewCellSize(cellSize);
+        }
+        int batchIndex = Arrays.asList(args).indexOf(BATCH_FLAG);
+        if(batchIndex >= 0){
+            if(batchIndex + 1 >= args.length){
+                System.out.println("Did not execute due to incorrect command.");
+                return;
+            }
+            int batchResolution = DEFAULT_RESOLUTION;
+            try {
+                if(batchIndex + 2 < args.length){
+                    batchResolution = Integer.parseInt(args[batchIndex + 2]);
+                }
+                runBatch(args[batchIndex + 1], batchResolution);
+            }
+            catch (NumberFormatException e){
+                System.out.println("Did not execute due to incorrect command.");
+            }
+            catch (IOException e){
+                System.out.println(IMAGE_FILE_ERROR);
+            }
+            return;
+        }
+        long startTime = System.nanoTime();
         Shell runShell = new Shell();
+        if(Arrays.asList(args).contains(STARTUP_TIME_FLAG)){
+            runShell.reportStartupTime(startTime);
+        }
         runShell.run();
     }
 }
\ No newline at end of file
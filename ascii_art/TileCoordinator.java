@@ -0,0 +1,343 @@
+package ascii_art;
+
+import image.Image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the brightness matching of the ascii Art algorithm on several TileWorker processes.
+ * Every image is split into tiles of whole rows of sub-images, and the tiles of all the images are handed
+ * to the workers over loopback sockets. A tile of a worker that dies is given to the other workers.
+ */
+public class TileCoordinator implements AutoCloseable {
+    private static final int TILES_PER_WORKER = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int CONNECT_TIMEOUT_MS = 30000;
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<Socket> workers = new ArrayList<>();
+
+    /**
+     * constructor - starts the worker processes and waits for them to connect
+     * @param numWorkers - the number of worker processes
+     * @throws IOException if the workers can not be started
+     */
+    public TileCoordinator(int numWorkers) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, numWorkers, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT_MS);
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int i = 0; i < numWorkers; i++) {
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        TileWorker.class.getName(), String.valueOf(server.getLocalPort()))
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+            }
+            for (int i = 0; i < numWorkers; i++) {
+                workers.add(server.accept());
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * constructor - coordinates workers that are already connected, e.g. workers that run in the same
+     * process in a test
+     * @param workers - the connections to the workers
+     */
+    TileCoordinator(List<Socket> workers) {
+        this.workers.addAll(workers);
+    }
+
+    /**
+     * A part of an image sent to a worker
+     */
+    private static class Tile {
+        private final int id;
+        private final int image;
+        private final int firstRow;
+        private final int rows;
+        private int attempts;
+
+        Tile(int id, int image, int firstRow, int rows) {
+            this.id = id;
+            this.image = image;
+            this.firstRow = firstRow;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Converts an image on the workers
+     * @param image - the padded image
+     * @param charset - the charset to match the sub-images to
+     * @param resolution - the wanted resolution
+     * @return - a two-dimensional array of ascii chars that represents the image
+     * @throws IOException if all the workers died before every tile was converted
+     * @throws InterruptedIOException if the thread was interrupted - the workers are kept
+     */
+    public char[][] run(Image image, char[] charset, int resolution) throws IOException {
+        return runBatch(Collections.singletonList(image), charset, resolution).get(0);
+    }
+
+    /**
+     * Converts a batch of images on the workers, sharing the tiles of all the images between them
+     * @param images - the padded images
+     * @param charset - the charset to match the sub-images to
+     * @param resolution - the wanted resolution
+     * @return - the ascii art of every image, in the order of the images
+     * @throws IOException if all the workers died before every tile was converted
+     * @throws InterruptedIOException if the thread was interrupted - the workers are kept
+     */
+    public List<char[][]> runBatch(List<Image> images, char[] charset, int resolution) throws IOException {
+        List<char[][]> results = new ArrayList<>();
+        LinkedBlockingQueue<Tile> tiles = new LinkedBlockingQueue<>();
+        int numTiles = 0;
+        for (int index = 0; index < images.size(); index++) {
+            Image image = images.get(index);
+            int rows = image.getHeight() / (image.getWidth() / resolution);
+            results.add(new char[rows][]);
+            int tileRows = Math.max(1, rows * images.size() / (TILES_PER_WORKER * Math.max(1, workers.size())));
+            for (int firstRow = 0; firstRow < rows; firstRow += tileRows) {
+                tiles.add(new Tile(numTiles++, index, firstRow, Math.min(tileRows, rows - firstRow)));
+            }
+        }
+
+        int[] remaining = {numTiles};
+        IOException[] failure = {null};
+        List<Thread> threads = new ArrayList<>();
+        for (Socket worker : new ArrayList<>(workers)) {
+            Thread thread = new Thread(() -> serveWorker(worker, tiles, images, charset, resolution, results,
+                    remaining, failure), "tile-coordinator");
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                stopServing(threads);
+                Thread.currentThread().interrupt();
+                InterruptedIOException interrupted =
+                        new InterruptedIOException("Interrupted while waiting for the workers");
+                interrupted.initCause(e);
+                throw interrupted;
+            }
+        }
+        synchronized (remaining) {
+            if (remaining[0] > 0) {
+                throw failure[0] != null ? failure[0] : new IOException("No worker is left");
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Stops the threads that serve the workers and waits for them, so the image is no longer read once the
+     * batch returns. A thread finishes the tile it sent before it stops, so its worker stays in step with
+     * the coordinator for the next batch.
+     */
+    private static void stopServing(List<Thread> threads) {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends tiles to a single worker until every tile was converted, putting the tile back in the queue if
+     * the worker dies
+     */
+    private void serveWorker(Socket worker, LinkedBlockingQueue<Tile> tiles, List<Image> images,
+                             char[] charset, int resolution, List<char[][]> results, int[] remaining,
+                             IOException[] failure) {
+        DataInputStream input;
+        DataOutputStream output;
+        try {
+            input = new DataInputStream(new BufferedInputStream(worker.getInputStream()));
+            output = new DataOutputStream(new BufferedOutputStream(worker.getOutputStream()));
+        } catch (IOException e) {
+            dropWorker(worker);
+            return;
+        }
+        while (true) {
+            Tile tile;
+            try {
+                tile = nextTile(tiles, remaining, failure);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (tile == null) {
+                return;
+            }
+            try {
+                sendTile(output, tile, images.get(tile.image), charset, resolution);
+                receiveTile(input, tile, results.get(tile.image));
+                synchronized (remaining) {
+                    remaining[0]--;
+                    remaining.notifyAll();
+                }
+            } catch (IOException e) {
+                dropWorker(worker);
+                synchronized (remaining) {
+                    if (++tile.attempts < MAX_ATTEMPTS && hasWorkers()) {
+                        tiles.add(tile);
+                    } else {
+                        failure[0] = e;
+                        remaining.notifyAll();
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for a tile to convert
+     * @return the next tile, or null when every tile was converted or the conversion failed - a tile that
+     * ran out of attempts fails the batch even while other workers are alive
+     */
+    private Tile nextTile(LinkedBlockingQueue<Tile> tiles, int[] remaining, IOException[] failure)
+            throws InterruptedException {
+        while (true) {
+            synchronized (remaining) {
+                if (failure[0] != null) {
+                    return null;
+                }
+            }
+            Tile tile = tiles.poll(100, TimeUnit.MILLISECONDS);
+            if (tile != null) {
+                return tile;
+            }
+            synchronized (remaining) {
+                if (remaining[0] == 0 || failure[0] != null || !hasWorkers()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a tile request
+     */
+    private static void sendTile(DataOutputStream output, Tile tile, Image image, char[] charset,
+                                 int resolution) throws IOException {
+        int subSize = image.getWidth() / resolution;
+        int top = tile.firstRow * subSize;
+        int height = tile.rows * subSize;
+        output.writeInt(tile.id);
+        output.writeInt(charset.length);
+        for (char c : charset) {
+            output.writeChar(c);
+        }
+        output.writeInt(image.getWidth());
+        output.writeInt(height);
+        output.writeInt(resolution);
+        ByteBuffer rowBytes = ByteBuffer.allocate(image.getWidth() * Integer.BYTES);
+        for (int row = top; row < top + height; row++) {
+            rowBytes.clear();
+            for (int col = 0; col < image.getWidth(); col++) {
+                rowBytes.putInt(image.getRGB(row, col));
+            }
+            output.write(rowBytes.array(), 0, rowBytes.position());
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads a tile response into the rows of the result
+     */
+    private static void receiveTile(DataInputStream input, Tile tile, char[][] result) throws IOException {
+        int tileId = input.readInt();
+        int rows = input.readInt();
+        int cols = input.readInt();
+        if (tileId != tile.id || rows != tile.rows) {
+            throw new IOException("Unexpected tile from worker");
+        }
+        char[][] tileChars = new char[rows][cols];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                tileChars[row][col] = input.readChar();
+            }
+        }
+        synchronized (result) {
+            System.arraycopy(tileChars, 0, result, tile.firstRow, rows);
+        }
+    }
+
+    private synchronized void dropWorker(Socket worker) {
+        workers.remove(worker);
+        try {
+            worker.close();
+        } catch (IOException ignored) {
+            // the worker is gone anyway
+        }
+    }
+
+    private synchronized boolean hasWorkers() {
+        return !workers.isEmpty();
+    }
+
+    /**
+     * getter
+     * @return the number of workers that are still alive
+     */
+    public synchronized int getNumWorkers() {
+        return workers.size();
+    }
+
+    /**
+     * Closes the connections, which makes the workers exit, and kills the workers that do not
+     */
+    @Override
+    public synchronized void close() {
+        for (Socket worker : workers) {
+            try {
+                worker.close();
+            } catch (IOException ignored) {
+                // the worker is killed below
+            }
+        }
+        workers.clear();
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+        processes.clear();
+    }
+}
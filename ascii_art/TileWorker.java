@@ -0,0 +1,94 @@
+package ascii_art;
+
+import image.Image;
+import image.ImageBrightness;
+import image_char_matching.SubImgCharMatcher;
+
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A worker process of TileCoordinator - connects to the coordinator on the loopback interface, and
+ * converts every tile it receives to ascii chars with ImageBrightness and SubImgCharMatcher, until the
+ * coordinator closes the connection.
+ * <pre>
+ * request:  tileId:i32 charsetLength:i32 charset:char[] width:i32 height:i32 cols:i32 pixels:i32[]
+ * response: tileId:i32 rows:i32 cols:i32 chars:char[]
+ * </pre>
+ */
+public class TileWorker {
+    private SubImgCharMatcher matcher;
+    private char[] matcherCharset = new char[0];
+
+    /**
+     * Reads a tile request, converts the tile and writes the response
+     * @param input the connection input
+     * @param output the connection output
+     * @throws IOException if the connection fails
+     */
+    private void convertTile(DataInputStream input, DataOutputStream output) throws IOException {
+        int tileId = input.readInt();
+        char[] charset = new char[input.readInt()];
+        for (int i = 0; i < charset.length; i++) {
+            charset[i] = input.readChar();
+        }
+        int width = input.readInt();
+        int height = input.readInt();
+        int cols = input.readInt();
+        Color[][] pixels = new Color[height][width];
+        byte[] rowBytes = new byte[width * Integer.BYTES];
+        for (int row = 0; row < height; row++) {
+            input.readFully(rowBytes);
+            ByteBuffer rowPixels = ByteBuffer.wrap(rowBytes);
+            for (int col = 0; col < width; col++) {
+                pixels[row][col] = new Color(rowPixels.getInt());
+            }
+        }
+        if (!Arrays.equals(charset, matcherCharset)) {
+            matcher = new SubImgCharMatcher(charset.clone());
+            matcherCharset = charset;
+        }
+
+        Image tile = new Image(pixels, width, height);
+        double[][] brightness = new ImageBrightness(tile, cols).calculateBrightness();
+        ImageBrightness.forget(tile);
+        output.writeInt(tileId);
+        output.writeInt(brightness.length);
+        output.writeInt(cols);
+        for (double[] brightnessRow : brightness) {
+            for (double cellBrightness : brightnessRow) {
+                output.writeChar(matcher.getCharByImageBrightness(cellBrightness));
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * the main function of a worker process
+     * @param args the port the coordinator listens on
+     * @throws IOException if the coordinator can not be reached
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output =
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            TileWorker worker = new TileWorker();
+            while (true) {
+                worker.convertTile(input, output);
+            }
+        } catch (EOFException e) {
+            // the coordinator closed the connection
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ascii_output;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Output a 2D array of chars to the console in the xterm-256 colors, with ANSI escape codes.
+ * The colors are mapped through a lookup table of 32 levels per channel, and an escape code is written
+ * only when the color differs from the color of the previous char.
+ */
+public class AnsiColorAsciiOutput implements ColorAsciiOutput {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    private static final byte[] RESET = "\033[0m".getBytes();
+    private static final int LEVEL_BITS = 5;
+    private static final int LEVELS = 1 << LEVEL_BITS;
+    /**
+     * the channel values of the 6x6x6 color cube of xterm-256, which starts at index 16
+     */
+    private static final int[] CUBE_VALUES = {0, 95, 135, 175, 215, 255};
+    private static final int CUBE_START = 16;
+    /**
+     * the 24 grays of xterm-256, which start at index 232 with 8 and go up by 10
+     */
+    private static final int GRAY_START = 232;
+    private static final int GRAYS = 24;
+    /**
+     * the escape code of every xterm-256 color
+     */
+    private static final byte[][] ESCAPES = new byte[256][];
+    /**
+     * the xterm-256 index of every color, by 5 bits of red, green and blue
+     */
+    private static final byte[] PALETTE = new byte[LEVELS * LEVELS * LEVELS];
+
+    static {
+        for (int index = 0; index < ESCAPES.length; index++) {
+            ESCAPES[index] = String.format("\033[38;5;%dm", index).getBytes();
+        }
+        int[] nearestCube = new int[LEVELS];
+        for (int level = 0; level < LEVELS; level++) {
+            nearestCube[level] = nearestCubeLevel(levelValue(level));
+        }
+        for (int red = 0; red < LEVELS; red++) {
+            for (int green = 0; green < LEVELS; green++) {
+                for (int blue = 0; blue < LEVELS; blue++) {
+                    PALETTE[(red << (2 * LEVEL_BITS)) | (green << LEVEL_BITS) | blue] = (byte) nearestColor(
+                            levelValue(red), levelValue(green), levelValue(blue),
+                            nearestCube[red], nearestCube[green], nearestCube[blue]);
+                }
+            }
+        }
+    }
+
+    private final PrintStream console = System.out;
+    private byte[] rowBytes = new byte[0];
+
+    @Override
+    public void out(char[][] chars) {
+        new ConsoleAsciiOutput().out(chars);
+    }
+
+    @Override
+    public void out(char[][] chars, int[][] colors) {
+        int lastColor = -1;
+        for (int y = 0; y < chars.length; y++) {
+            int length = 0;
+            for (int x = 0; x < chars[y].length; x++) {
+                int color = paletteIndex(colors[y][x]);
+                if (color != lastColor) {
+                    length = append(ESCAPES[color], length);
+                    lastColor = color;
+                }
+                length = appendChar(chars[y][x], length);
+            }
+            if (y == chars.length - 1) {
+                length = append(RESET, length);
+            }
+            length = append(LINE_SEPARATOR, length);
+            console.write(rowBytes, 0, length);
+        }
+        console.flush();
+    }
+
+    /**
+     * getter of the xterm-256 color closest to a color
+     * @param rgb the color, packed as 0xRRGGBB
+     * @return the index of the xterm-256 color
+     */
+    public static int paletteIndex(int rgb) {
+        int red = (rgb >> (24 - LEVEL_BITS)) & (LEVELS - 1);
+        int green = (rgb >> (16 - LEVEL_BITS)) & (LEVELS - 1);
+        int blue = (rgb >> (8 - LEVEL_BITS)) & (LEVELS - 1);
+        return PALETTE[(red << (2 * LEVEL_BITS)) | (green << LEVEL_BITS) | blue] & 0xFF;
+    }
+
+    /**
+     * appends bytes to the row, growing it if needed
+     * @return the new length of the row
+     */
+    private int append(byte[] bytes, int length) {
+        ensureCapacity(length + bytes.length);
+        System.arraycopy(bytes, 0, rowBytes, length, bytes.length);
+        return length + bytes.length;
+    }
+
+    /**
+     * appends a char and the space after it to the row, in UTF-8
+     * @return the new length of the row
+     */
+    private int appendChar(char c, int length) {
+        if (c < 128) {
+            ensureCapacity(length + 2);
+            rowBytes[length++] = (byte) c;
+        }
+        else {
+            length = append(String.valueOf(c).getBytes(), length);
+            ensureCapacity(length + 1);
+        }
+        rowBytes[length++] = ' ';
+        return length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (rowBytes.length < length) {
+            rowBytes = Arrays.copyOf(rowBytes, Math.max(length, 2 * rowBytes.length));
+        }
+    }
+
+    /**
+     * @return the channel value in the middle of a level of the lookup table
+     */
+    private static int levelValue(int level) {
+        return (level << (8 - LEVEL_BITS)) | (1 << (7 - LEVEL_BITS));
+    }
+
+    /**
+     * @return the index in CUBE_VALUES of the value closest to the channel value
+     */
+    private static int nearestCubeLevel(int value) {
+        int nearest = 0;
+        for (int i = 1; i < CUBE_VALUES.length; i++) {
+            if (Math.abs(CUBE_VALUES[i] - value) < Math.abs(CUBE_VALUES[nearest] - value)) {
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * finds the xterm-256 color closest to a color - the closest color of the cube is found channel by
+     * channel, and it is compared with the closest gray
+     * @return the index of the xterm-256 color
+     */
+    private static int nearestColor(int red, int green, int blue, int cubeRed, int cubeGreen, int cubeBlue) {
+        int cubeDistance = square(CUBE_VALUES[cubeRed] - red) + square(CUBE_VALUES[cubeGreen] - green) +
+                square(CUBE_VALUES[cubeBlue] - blue);
+        int gray = Math.max(0, Math.min(GRAYS - 1, ((red + green + blue) / 3 - 8 + 5) / 10));
+        int grayValue = 8 + 10 * gray;
+        int grayDistance = square(grayValue - red) + square(grayValue - green) + square(grayValue - blue);
+        if (grayDistance < cubeDistance) {
+            return GRAY_START + gray;
+        }
+        return CUBE_START + 36 * cubeRed + 6 * cubeGreen + cubeBlue;
+    }
+
+    private static int square(int value) {
+        return value * value;
+    }
+}
@@ -0,0 +1,24 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output a 2D array of chars
+ * row by row, while the next rows are still being calculated.
+ */
+public interface AsciiRowOutput {
+    /**
+     * Called once before the first row
+     * @param rows the number of rows that will follow
+     * @param cols the number of chars in every row
+     */
+    void begin(int rows, int cols);
+
+    /**
+     * Output the next row. The array may be reused by the caller once the method returns.
+     */
+    void row(char[] chars);
+
+    /**
+     * Called once after the last row
+     */
+    void end();
+}
@@ -0,0 +1,201 @@
+package ascii_output;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Output a 2D array of chars to a compact binary file, readable by BinaryAsciiReader.
+ * The file holds a header with the dimensions and the table of the chars used, followed by the cells in
+ * row major order as bit-packed indices into the table, run-length encoded when that is smaller:
+ * <pre>
+ * "ASCB" version:u8 flags:u8 rows:i32 cols:i32 tableSize:u16 table:char[tableSize] bits:u8 cells...
+ * </pre>
+ * With the RLE flag every cell is followed by one bit telling whether a run follows, and a run is
+ * RUN_LENGTH_BITS more bits holding the number of cells it covers minus MIN_RUN.
+ */
+public class BinaryAsciiOutput implements AsciiOutput {
+    static final int MAGIC = ('A' << 24) | ('S' << 16) | ('C' << 8) | 'B';
+    static final int VERSION = 1;
+    static final int RLE_FLAG = 1;
+    static final int RUN_LENGTH_BITS = 8;
+    static final int MIN_RUN = 2;
+    static final int MAX_RUN = MIN_RUN + (1 << RUN_LENGTH_BITS) - 1;
+
+    private final String filename;
+
+    public BinaryAsciiOutput(String filename) {
+        this.filename = filename;
+    }
+
+    @Override
+    public void out(char[][] chars) {
+        int rows = chars.length;
+        int cols = rows == 0 ? 0 : chars[0].length;
+        int[] indices = new int[Character.MAX_VALUE + 1];
+        char[] table = buildTable(chars, indices);
+        int bits = 1;
+        while ((1 << bits) < table.length) {
+            bits++;
+        }
+        boolean useRle = rleBits(chars, indices, bits) < (long) rows * cols * bits;
+
+        try (DataOutputStream writer = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)))) {
+            writer.writeInt(MAGIC);
+            writer.writeByte(VERSION);
+            writer.writeByte(useRle ? RLE_FLAG : 0);
+            writer.writeInt(rows);
+            writer.writeInt(cols);
+            writer.writeShort(table.length);
+            for (char c : table) {
+                writer.writeChar(c);
+            }
+            writer.writeByte(bits);
+            BitWriter bitWriter = new BitWriter(writer);
+            if (useRle) {
+                writeRle(chars, indices, bits, bitWriter);
+            } else {
+                for (char[] row : chars) {
+                    for (char c : row) {
+                        bitWriter.write(indices[c], bits);
+                    }
+                }
+            }
+            bitWriter.flush();
+        } catch (IOException e) {
+            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        }
+    }
+
+    /**
+     * Collects the distinct chars of the array in ascending order
+     * @param chars the array
+     * @param indices filled with the index of every char in the table
+     * @return the table
+     */
+    private static char[] buildTable(char[][] chars, int[] indices) {
+        boolean[] used = new boolean[Character.MAX_VALUE + 1];
+        int size = 0;
+        for (char[] row : chars) {
+            for (char c : row) {
+                if (!used[c]) {
+                    used[c] = true;
+                    size++;
+                }
+            }
+        }
+        char[] table = new char[size];
+        int index = 0;
+        for (int c = 0; c <= Character.MAX_VALUE && index < size; c++) {
+            if (used[c]) {
+                indices[c] = index;
+                table[index++] = (char) c;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Calculates the size of the run-length encoded cells
+     * @return the number of bits
+     */
+    private static long rleBits(char[][] chars, int[] indices, int bits) {
+        long total = 0;
+        int previous = -1;
+        int run = 0;
+        for (char[] row : chars) {
+            for (char c : row) {
+                if (indices[c] == previous && run < MAX_RUN) {
+                    run++;
+                    continue;
+                }
+                total += runBits(run, bits);
+                previous = indices[c];
+                run = 1;
+            }
+        }
+        return total + runBits(run, bits);
+    }
+
+    /**
+     * @return the number of bits a run of cells takes
+     */
+    private static long runBits(int run, int bits) {
+        if (run == 0) {
+            return 0;
+        }
+        if (run < MIN_RUN) {
+            return (long) run * (bits + 1);
+        }
+        return bits + 1 + RUN_LENGTH_BITS;
+    }
+
+    /**
+     * Writes the cells as runs of equal chars, row after row
+     */
+    private static void writeRle(char[][] chars, int[] indices, int bits, BitWriter bitWriter)
+            throws IOException {
+        int previous = -1;
+        int run = 0;
+        for (char[] row : chars) {
+            for (char c : row) {
+                if (indices[c] == previous && run < MAX_RUN) {
+                    run++;
+                    continue;
+                }
+                writeRun(previous, run, bits, bitWriter);
+                previous = indices[c];
+                run = 1;
+            }
+        }
+        writeRun(previous, run, bits, bitWriter);
+    }
+
+    /**
+     * Writes a single run, as separate cells when it is too short to be worth a length
+     */
+    private static void writeRun(int index, int run, int bits, BitWriter bitWriter) throws IOException {
+        if (run >= MIN_RUN) {
+            bitWriter.write(index, bits);
+            bitWriter.write(1, 1);
+            bitWriter.write(run - MIN_RUN, RUN_LENGTH_BITS);
+            return;
+        }
+        for (int i = 0; i < run; i++) {
+            bitWriter.write(index, bits);
+            bitWriter.write(0, 1);
+        }
+    }
+
+    /**
+     * Packs values into bytes, most significant bit first
+     */
+    private static class BitWriter {
+        private final DataOutputStream writer;
+        private long buffer;
+        private int bufferedBits;
+
+        BitWriter(DataOutputStream writer) {
+            this.writer = writer;
+        }
+
+        void write(int value, int bits) throws IOException {
+            buffer = (buffer << bits) | (value & ((1L << bits) - 1));
+            bufferedBits += bits;
+            while (bufferedBits >= 8) {
+                bufferedBits -= 8;
+                writer.write((int) (buffer >>> bufferedBits));
+            }
+        }
+
+        void flush() throws IOException {
+            if (bufferedBits > 0) {
+                writer.write((int) (buffer << (8 - bufferedBits)));
+                bufferedBits = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ascii_output;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads back a 2D array of chars written by BinaryAsciiOutput.
+ */
+public class BinaryAsciiReader {
+
+    private BinaryAsciiReader() {
+    }
+
+    /**
+     * Reads the array from a file
+     * @param filename the file written by BinaryAsciiOutput
+     * @return the array of chars
+     * @throws IOException if the file can not be read or is not in the binary format
+     */
+    public static char[][] read(String filename) throws IOException {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(filename))) {
+            return read(input);
+        }
+    }
+
+    /**
+     * Reads the array from a stream
+     * @param input a stream positioned at the start of the binary format
+     * @return the array of chars
+     * @throws IOException if the stream can not be read or is not in the binary format
+     */
+    public static char[][] read(InputStream input) throws IOException {
+        DataInputStream reader = new DataInputStream(input);
+        if (reader.readInt() != BinaryAsciiOutput.MAGIC) {
+            throw new IOException("Not a binary ascii file");
+        }
+        int version = reader.readUnsignedByte();
+        if (version != BinaryAsciiOutput.VERSION) {
+            throw new IOException(String.format("Unsupported binary ascii version %d", version));
+        }
+        boolean useRle = (reader.readUnsignedByte() & BinaryAsciiOutput.RLE_FLAG) != 0;
+        int rows = reader.readInt();
+        int cols = reader.readInt();
+        char[] table = new char[reader.readUnsignedShort()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = reader.readChar();
+        }
+        int bits = reader.readUnsignedByte();
+
+        char[][] chars = new char[rows][cols];
+        BitReader bitReader = new BitReader(reader);
+        int run = 0;
+        char runChar = 0;
+        for (int row = 0; row < rows; row++) {
+            char[] charRow = chars[row];
+            for (int col = 0; col < cols; col++) {
+                if (run == 0) {
+                    runChar = table[bitReader.read(bits)];
+                    run = 1;
+                    if (useRle && bitReader.read(1) == 1) {
+                        run = bitReader.read(BinaryAsciiOutput.RUN_LENGTH_BITS) + BinaryAsciiOutput.MIN_RUN;
+                    }
+                }
+                charRow[col] = runChar;
+                run--;
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Unpacks values from bytes, most significant bit first
+     */
+    private static class BitReader {
+        private final DataInputStream reader;
+        private long buffer;
+        private int bufferedBits;
+
+        BitReader(DataInputStream reader) {
+            this.reader = reader;
+        }
+
+        int read(int bits) throws IOException {
+            while (bufferedBits < bits) {
+                buffer = (buffer << 8) | reader.readUnsignedByte();
+                bufferedBits += 8;
+            }
+            bufferedBits -= bits;
+            return (int) ((buffer >>> bufferedBits) & ((1L << bits) - 1));
+        }
+    }
+}
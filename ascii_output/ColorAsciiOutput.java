@@ -0,0 +1,14 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output a 2D array of chars
+ * together with the color of every char.
+ */
+public interface ColorAsciiOutput extends AsciiOutput {
+    /**
+     * Output the specified 2D array of chars in the specified colors
+     * @param chars the chars
+     * @param colors the color of every char, packed as 0xRRGGBB
+     */
+    void out(char[][] chars, int[][] colors);
+}
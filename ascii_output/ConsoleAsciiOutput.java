@@ -1,16 +1,64 @@
 package ascii_output;
 
+import java.io.PrintStream;
+
 /**
  * Output a 2D array of chars to the console.
+ * Rows of ascii chars are packed into a reusable byte array and written at once.
  * @author Dan Nirel
- */public class ConsoleAsciiOutput implements AsciiOutput{
+ */public class ConsoleAsciiOutput implements AsciiOutput, AsciiRowOutput{
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    private byte[] rowBytes = new byte[0];
+
     @Override
     public void out(char[][] chars) {
+        begin(chars.length, chars.length == 0 ? 0 : chars[0].length);
         for (int y = 0; y < chars.length ; y++) {
-            for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
+            row(chars[y]);
+        }
+        end();
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        int length = 2 * cols + LINE_SEPARATOR.length;
+        if (rowBytes.length < length) {
+            rowBytes = new byte[length];
+        }
+    }
+
+    @Override
+    public void row(char[] chars) {
+        PrintStream console = System.out;
+        int length = 2 * chars.length + LINE_SEPARATOR.length;
+        if (rowBytes.length < length) {
+            rowBytes = new byte[length];
+        }
+        int index = 0;
+        for (int x = 0; x < chars.length; x++) {
+            if (chars[x] > 127) {
+                printRow(chars);
+                return;
             }
-            System.out.println();
+            rowBytes[index++] = (byte) chars[x];
+            rowBytes[index++] = ' ';
+        }
+        System.arraycopy(LINE_SEPARATOR, 0, rowBytes, index, LINE_SEPARATOR.length);
+        console.write(rowBytes, 0, length);
+    }
+
+    @Override
+    public void end() {
+        System.out.flush();
+    }
+
+    /**
+     * prints a row that is not only ascii chars through the console encoding
+     */
+    private static void printRow(char[] chars) {
+        for (int x = 0; x < chars.length; x++) {
+            System.out.print(chars[x] + " ");
         }
+        System.out.println();
     }
 }
@@ -0,0 +1,225 @@
+package ascii_output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Output a 2D array of chars to an ANSI terminal, redrawing only what changed since the last array.
+ * The first array is drawn at the top of a cleared screen. For every next array of the same size, the runs
+ * of changed chars are found row by row and written after a cursor move to their position, and the screen
+ * below the array is cleared so the lines printed between arrays do not pile up. If the update would be
+ * larger than the array itself, or the size changed, the screen is drawn again from scratch.
+ * The cursor moves are absolute, so they are right only while the array is where the last redraw put it -
+ * at the top of the screen, one screen line per row. The size of the terminal is read with stty for the
+ * first array, and again only when the size of the array changes or the array does not fit the size that
+ * was read, since starting stty for every array would cost more than the update. The array is drawn from
+ * scratch when the size is unknown, changed, or leaves too few lines below the array for the prompt, or
+ * when a row would wrap. A terminal that is resized while the arrays keep their size, and lines printed
+ * between arrays that scroll the screen, e.g. a long command output, are not detected - the next redraw
+ * from scratch fixes them.
+ */
+public class DiffConsoleAsciiOutput implements AsciiOutput {
+    private static final byte[] CLEAR_SCREEN = "\033[H\033[2J".getBytes();
+    private static final byte[] CLEAR_BELOW = "\033[J".getBytes();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    /**
+     * two runs closer than this number of chars are written as one, since writing the unchanged chars
+     * between them is shorter than another cursor move
+     */
+    private static final int MIN_GAP = 4;
+    /**
+     * the lines below the array the prompt and the command typed into it take, which must not scroll the
+     * screen
+     */
+    private static final int RESERVED_LINES = 2;
+    private static final File TERMINAL = new File("/dev/tty");
+
+    private final PrintStream console = System.out;
+    private char[][] lastFrame;
+    private int[] lastTerminalSize;
+    private byte[] bytes = new byte[0];
+    private int length;
+
+    @Override
+    public void out(char[][] chars) {
+        length = 0;
+        boolean sameSize = sameSize(chars);
+        int[] previousTerminalSize = lastTerminalSize;
+        if (!sameSize || (lastTerminalSize != null && !fits(chars, lastTerminalSize))) {
+            lastTerminalSize = terminalSize();
+        }
+        boolean canDiff = sameSize && fits(chars, lastTerminalSize) &&
+                Arrays.equals(lastTerminalSize, previousTerminalSize);
+        if (!canDiff || !appendDiff(chars, fullFrameLength(chars))) {
+            length = 0;
+            append(CLEAR_SCREEN);
+            for (char[] row : chars) {
+                appendCells(row, 0, row.length);
+                append(LINE_SEPARATOR);
+            }
+        }
+        console.write(bytes, 0, length);
+        console.flush();
+        if (!sameSize) {
+            lastFrame = new char[chars.length][];
+        }
+        for (int y = 0; y < chars.length; y++) {
+            if (sameSize) {
+                System.arraycopy(chars[y], 0, lastFrame[y], 0, chars[y].length);
+            }
+            else {
+                lastFrame[y] = Arrays.copyOf(chars[y], chars[y].length);
+            }
+        }
+    }
+
+    /**
+     * writes the cursor moves and chars of the runs that changed since the last frame, followed by a move
+     * below the frame
+     * @param chars the new frame
+     * @param limit the number of bytes a full redraw takes
+     * @return false if the update reached the limit, in which case it is not complete
+     */
+    private boolean appendDiff(char[][] chars, int limit) {
+        for (int y = 0; y < chars.length; y++) {
+            char[] row = chars[y];
+            char[] lastRow = lastFrame[y];
+            int x = 0;
+            while (x < row.length) {
+                if (row[x] == lastRow[x]) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                int end = x + 1;
+                int gap = 0;
+                for (x = end; x < row.length && gap < MIN_GAP; x++) {
+                    if (row[x] != lastRow[x]) {
+                        end = x + 1;
+                        gap = 0;
+                    }
+                    else {
+                        gap++;
+                    }
+                }
+                moveCursor(y, 2 * start);
+                appendCells(row, start, end);
+                if (length > limit) {
+                    return false;
+                }
+            }
+        }
+        moveCursor(chars.length, 0);
+        append(CLEAR_BELOW);
+        return true;
+    }
+
+    /**
+     * @return true if the frame has the size of the last frame
+     */
+    private boolean sameSize(char[][] chars) {
+        if (lastFrame == null || lastFrame.length != chars.length) {
+            return false;
+        }
+        for (int y = 0; y < chars.length; y++) {
+            if (lastFrame[y].length != chars[y].length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every row of the frame fits in a line of the terminal and the reserved lines fit below
+     * the frame
+     */
+    private static boolean fits(char[][] chars, int[] terminalSize) {
+        if (terminalSize == null || chars.length + RESERVED_LINES > terminalSize[0]) {
+            return false;
+        }
+        for (char[] row : chars) {
+            if (2 * row.length > terminalSize[1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * reads the size of the controlling terminal with stty
+     * @return the number of lines and columns, or null if the output is not a terminal or the size is
+     * unknown
+     */
+    private static int[] terminalSize() {
+        if (System.console() == null || !TERMINAL.exists()) {
+            return null;
+        }
+        try {
+            Process stty = new ProcessBuilder("stty", "size").redirectInput(TERMINAL)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            String[] size = new String(stty.getInputStream().readAllBytes(), StandardCharsets.US_ASCII)
+                    .trim().split("\\s+");
+            if (stty.waitFor() != 0 || size.length != 2) {
+                return null;
+            }
+            int[] linesAndColumns = {Integer.parseInt(size[0]), Integer.parseInt(size[1])};
+            return linesAndColumns[0] > 0 && linesAndColumns[1] > 0 ? linesAndColumns : null;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of bytes a full redraw of the frame takes, for frames of ascii chars
+     */
+    private static int fullFrameLength(char[][] chars) {
+        int frameLength = CLEAR_SCREEN.length;
+        for (char[] row : chars) {
+            frameLength += 2 * row.length + LINE_SEPARATOR.length;
+        }
+        return frameLength;
+    }
+
+    /**
+     * writes the escape code that moves the cursor to a position on the screen
+     * @param row the row, from 0
+     * @param col the col, from 0
+     */
+    private void moveCursor(int row, int col) {
+        append(String.format("\033[%d;%dH", row + 1, col + 1).getBytes());
+    }
+
+    /**
+     * writes chars of a row, each one followed by a space, like ConsoleAsciiOutput
+     */
+    private void appendCells(char[] row, int start, int end) {
+        for (int x = start; x < end; x++) {
+            if (row[x] < 128) {
+                ensureCapacity(length + 2);
+                bytes[length++] = (byte) row[x];
+                bytes[length++] = ' ';
+            }
+            else {
+                append((row[x] + " ").getBytes());
+            }
+        }
+    }
+
+    private void append(byte[] moreBytes) {
+        ensureCapacity(length + moreBytes.length);
+        System.arraycopy(moreBytes, 0, bytes, length, moreBytes.length);
+        length += moreBytes.length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (bytes.length < capacity) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+        }
+    }
+}
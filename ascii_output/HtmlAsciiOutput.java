@@ -9,12 +9,13 @@ import java.util.logging.Logger;
  * Output a 2D array of chars to an HTML file viewable in a web browser.
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements AsciiOutput, AsciiRowOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
 
     private final String fontName;
     private final String filename;
+    private BufferedWriter writer;
 
     public HtmlAsciiOutput(String filename, String fontName) {
         this.fontName = fontName;
@@ -23,7 +24,17 @@ public class HtmlAsciiOutput implements AsciiOutput {
 
     @Override
     public void out(char[][] chars) {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+        begin(chars.length, chars[0].length);
+        for(int y = 0 ; y < chars.length ; y++) {
+            row(chars[y]);
+        }
+        end();
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        try {
+            writer = new BufferedWriter(new FileWriter(filename));
             writer.write(String.format(
                 "<!DOCTYPE html>\n"+
                 "<html>\n"+
@@ -37,27 +48,62 @@ public class HtmlAsciiOutput implements AsciiOutput {
                     "\tFONT-SIZE:%frem;"+
                     "\tLETTER-SPACING:0.15em;"+
                     "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
-
-            for(int y = 0 ; y < chars.length ; y++) {
-                for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
+                    fontName, BASE_FONT_SIZE/cols, BASE_LINE_SPACING));
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void row(char[] chars) {
+        if(writer == null) {
+            return;
+        }
+        try {
+            for (int x = 0; x < chars.length ; x++) {
+                String htmlRep;
+                switch(chars[x]) {
+                    case '<': htmlRep = "&lt;";  break;
+                    case '>': htmlRep = "&gt;";  break;
+                    case '&': htmlRep = "&amp;"; break;
+                    default:  htmlRep = String.valueOf(chars[x]);
                 }
-                writer.newLine();
+                writer.write(htmlRep);
             }
+            writer.newLine();
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void end() {
+        if(writer == null) {
+            return;
+        }
+        try {
             writer.write(
                 "</p>\n"+
                 "</body>\n"+
                 "</html>\n");
+            writer.close();
         } catch(IOException e) {
-            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+            fail();
+        }
+        writer = null;
+    }
+
+    /**
+     * logs the failure and stops writing the rows that are left
+     */
+    private void fail() {
+        Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        if(writer != null) {
+            try {
+                writer.close();
+            } catch(IOException ignored) {
+            }
+            writer = null;
         }
     }
 }
@@ -0,0 +1,96 @@
+package ascii_output;
+
+import image_char_matching.CharConverter;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Output a 2D array of chars to an image file (png, jpeg or any other format ImageIO can write).
+ * Every char is rendered once into a cached atlas of glyph squares, and the rows of the image are filled
+ * in parallel by copying the glyph rows straight into the raster.
+ */
+public class ImageAsciiOutput implements AsciiOutput {
+    private static final int DEFAULT_GLYPH_SIZE = 16;
+    private static final int INK = 0x000000;
+    private static final int PAPER = 0xFFFFFF;
+    private static final Map<Integer, int[][]> atlases = new HashMap<>();
+
+    private final String filename;
+    private final String format;
+    private final int glyphSize;
+
+    public ImageAsciiOutput(String filename, String format) {
+        this(filename, format, DEFAULT_GLYPH_SIZE);
+    }
+
+    public ImageAsciiOutput(String filename, String format, int glyphSize) {
+        this.filename = filename;
+        this.format = format;
+        this.glyphSize = glyphSize;
+    }
+
+    @Override
+    public void out(char[][] chars) {
+        int rows = chars.length;
+        int cols = rows == 0 ? 0 : chars[0].length;
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+        int[][] glyphs = getGlyphs(chars);
+        int width = cols * glyphSize;
+        BufferedImage image = new BufferedImage(width, rows * glyphSize, BufferedImage.TYPE_INT_RGB);
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            char[] charRow = chars[row];
+            for (int y = 0; y < glyphSize; y++) {
+                int destination = (row * glyphSize + y) * width;
+                int source = y * glyphSize;
+                for (int x = 0; x < cols; x++) {
+                    System.arraycopy(glyphs[charRow[x]], source, raster, destination + x * glyphSize,
+                            glyphSize);
+                }
+            }
+        });
+        try {
+            if (!ImageIO.write(image, format, new File(filename))) {
+                Logger.getGlobal().severe(String.format("No writer for \"%s\"", format));
+            }
+        } catch (IOException e) {
+            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        }
+    }
+
+    /**
+     * Finds the glyph of every char in the array, rendering the chars that are not in the atlas yet. The
+     * atlas of a glyph size is indexed by char and only as long as the largest char it holds, so an ascii
+     * charset keeps a short array that every export reuses.
+     * @param chars the array
+     * @return the atlas of the glyph size, indexed by char
+     */
+    private int[][] getGlyphs(char[][] chars) {
+        synchronized (atlases) {
+            int[][] atlas = atlases.getOrDefault(glyphSize, new int[0][]);
+            for (char[] row : chars) {
+                for (char c : row) {
+                    if (c >= atlas.length) {
+                        atlas = Arrays.copyOf(atlas, c + 1);
+                    }
+                    if (atlas[c] == null) {
+                        atlas[c] = CharConverter.convertToPixels(c, glyphSize, INK, PAPER);
+                    }
+                }
+            }
+            atlases.put(glyphSize, atlas);
+            return atlas;
+        }
+    }
+}
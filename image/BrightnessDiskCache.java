@@ -0,0 +1,402 @@
+package image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A cache of brightness arrays on the local disk, that outlives the process. An array is saved by the
+ * SHA-256 digest of the encoded image file, the way the file was decoded (its subsampling factor) and the
+ * resolution, so a rerun over the same files finds the arrays without decoding them.
+ * The arrays are saved as doubles in a single segment file that is only appended to - floats would halve
+ * the file, but sub-images that are close to the middle between two chars would then change their char.
+ * Every record has a header with its key and a CRC32 of the key, the size and the content, and the file is
+ * memory mapped for reading; the index of the records is built by scanning them when the file is opened or
+ * grows, and the scan stops before a record that fails its CRC, so a record another process is still writing
+ * is indexed by a later scan. A record damaged on the disk ends the index the same way, and the next append
+ * overwrites it and the records after it. When an append would make the file larger than its limit, the
+ * newest records that fill half of the limit are copied to a new file that replaces it, so the oldest records
+ * are evicted first.
+ * Appends and replacements of several processes are serialized by a lock on a separate lock file. Readers do
+ * not lock - records do not change once written, a torn record fails its CRC, and a replaced file stays
+ * mapped until the reader notices the new one. The file never shrinks in place, since a reader that maps
+ * the lost pages would crash - a record torn by a process that died while appending is overwritten by the
+ * next append, and what is left of it is zeroed. Errors of the disk are treated as misses, the cache never
+ * fails a render.
+ */
+public class BrightnessDiskCache {
+    private static final String SEGMENT_FILE = "brightness.seg";
+    private static final String LOCK_FILE = "brightness.lock";
+    private static final int FILE_MAGIC = 0x41534342;
+    private static final int FILE_VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int RECORD_MAGIC = 0x52454331;
+    private static final int DIGEST_SIZE = 32;
+    /**
+     * magic, digest, variant, resolution, rows, cols and crc
+     */
+    private static final int RECORD_HEADER_SIZE = DIGEST_SIZE + 6 * Integer.BYTES;
+    /**
+     * the digest, variant, resolution, rows and cols, which the crc covers with the content
+     */
+    private static final int CHECKED_HEADER_OFFSET = Integer.BYTES;
+    private static final int CHECKED_HEADER_SIZE = DIGEST_SIZE + 4 * Integer.BYTES;
+
+    private final Path segmentPath;
+    private final Path lockPath;
+    private final long maxBytes;
+
+    private Object fileKey;
+    private MappedByteBuffer segment;
+    private long scannedBytes;
+    private final Map<Key, Long> index = new HashMap<>();
+
+    /**
+     * The key of a brightness array
+     */
+    private static class Key {
+        private final byte[] digest;
+        private final int variant;
+        private final int resolution;
+
+        Key(byte[] digest, int variant, int resolution) {
+            this.digest = digest;
+            this.variant = variant;
+            this.resolution = resolution;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Arrays.equals(digest, other.digest) && variant == other.variant &&
+                    resolution == other.resolution;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Arrays.hashCode(digest) * 31 + variant) * 31 + resolution;
+        }
+    }
+
+    /**
+     * constructor - creates the directory if it does not exist
+     * @param directory - the directory of the segment file
+     * @param maxBytes - the largest size of the segment file, at most 2 GB since it is mapped as one buffer
+     * @throws IOException if the directory can not be created
+     */
+    public BrightnessDiskCache(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        this.segmentPath = directory.resolve(SEGMENT_FILE);
+        this.lockPath = directory.resolve(LOCK_FILE);
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * the function calculates the SHA-256 digest of an image file, without keeping it in memory
+     * @param file the file
+     * @return the digest
+     * @throws IOException if the file can not be read
+     */
+    public static byte[] digest(Path file) throws IOException {
+        MessageDigest messageDigest = newDigest();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream input = Files.newInputStream(file)) {
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        return messageDigest.digest();
+    }
+
+    /**
+     * the function calculates the SHA-256 digest of an encoded image that is in memory
+     * @param bytes the encoded image
+     * @return the digest
+     */
+    public static byte[] digest(byte[] bytes) {
+        return newDigest().digest(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * the function returns a saved brightness array
+     * @param digest the digest of the image file
+     * @param variant the way the file was decoded, e.g. its subsampling factor
+     * @param resolution the number of sub-images in a row
+     * @return the brightness array, or null if it is not saved or its record is damaged
+     */
+    public synchronized double[][] get(byte[] digest, int variant, int resolution) {
+        try {
+            refresh();
+        } catch (IOException e) {
+            return null;
+        }
+        Key key = new Key(digest, variant, resolution);
+        Long offset = index.get(key);
+        if (offset == null) {
+            return null;
+        }
+        double[][] brightness = readRecord(segment, offset.intValue());
+        if (brightness == null) {
+            index.remove(key);
+        }
+        return brightness;
+    }
+
+    /**
+     * the function appends a brightness array to the segment file, unless it is already saved
+     * @param digest the digest of the image file
+     * @param variant the way the file was decoded, e.g. its subsampling factor
+     * @param resolution the number of sub-images in a row
+     * @param brightness the brightness array
+     */
+    public synchronized void put(byte[] digest, int variant, int resolution, double[][] brightness) {
+        int rows = brightness.length;
+        int cols = brightness[0].length;
+        long recordSize = RECORD_HEADER_SIZE + (long) rows * cols * Double.BYTES;
+        if (FILE_HEADER_SIZE + recordSize > maxBytes) {
+            return;
+        }
+        Key key = new Key(digest, variant, resolution);
+        try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                append(key, brightness, recordSize);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            // the array is just not saved
+        }
+    }
+
+    /**
+     * the function appends a record after the last whole record, while the lock is held
+     * @param key the key of the array
+     * @param brightness the brightness array
+     * @param recordSize the size of the record
+     * @throws IOException if the file can not be written
+     */
+    private void append(Key key, double[][] brightness, long recordSize) throws IOException {
+        refresh();
+        if (index.containsKey(key)) {
+            return;
+        }
+        boolean damaged = segment != null && scannedBytes == 0;
+        if (damaged || scannedBytes + recordSize > maxBytes) {
+            compact(maxBytes / 2 - recordSize);
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+        writeRecord(record, key, brightness);
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            long end = scannedBytes;
+            if (end == 0) {
+                channel.write(fileHeader(), 0);
+                end = FILE_HEADER_SIZE;
+            }
+            // a record torn by a process that died while appending is overwritten in place, and the rest
+            // of it is zeroed so the next scan stops after the new record
+            channel.write(record, end);
+            long recordEnd = end + recordSize;
+            long size = channel.size();
+            if (size > recordEnd) {
+                channel.write(ByteBuffer.allocate((int) (size - recordEnd)), recordEnd);
+            }
+        }
+        refresh();
+    }
+
+    /**
+     * the function maps the segment file again if its size changed or it was replaced, and adds the whole
+     * records that were appended since the last scan to the index
+     * @throws IOException if the file can not be mapped
+     */
+    private void refresh() throws IOException {
+        Object currentKey;
+        long size;
+        try {
+            currentKey = Files.readAttributes(segmentPath, BasicFileAttributes.class).fileKey();
+            size = Files.size(segmentPath);
+        } catch (NoSuchFileException e) {
+            fileKey = null;
+            segment = null;
+            scannedBytes = 0;
+            index.clear();
+            return;
+        }
+        if (currentKey == null || !currentKey.equals(fileKey)) {
+            fileKey = currentKey;
+            segment = null;
+            scannedBytes = 0;
+            index.clear();
+        }
+        // a torn tail is overwritten in place, so records may appear without the file growing
+        if (segment == null || size != segment.capacity()) {
+            try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+            }
+        }
+        if (scannedBytes == 0) {
+            if (segment.capacity() < FILE_HEADER_SIZE || segment.getInt(0) != FILE_MAGIC ||
+                    segment.getInt(Integer.BYTES) != FILE_VERSION) {
+                return;
+            }
+            scannedBytes = FILE_HEADER_SIZE;
+        }
+        while (scannedBytes + RECORD_HEADER_SIZE <= segment.capacity()) {
+            int offset = (int) scannedBytes;
+            if (segment.getInt(offset) != RECORD_MAGIC) {
+                break;
+            }
+            long end = offset + recordSize(segment, offset);
+            if (end > segment.capacity() || !isIntact(segment, offset)) {
+                break;
+            }
+            index.put(readKey(segment, offset), (long) offset);
+            scannedBytes = end;
+        }
+    }
+
+    /**
+     * the function replaces the segment file with one that holds only the newest records that fit in the
+     * given number of bytes
+     * @param keepBytes the number of bytes of records to keep
+     * @throws IOException if the new file can not be written
+     */
+    private void compact(long keepBytes) throws IOException {
+        List<Integer> offsets = new ArrayList<>();
+        for (int offset = FILE_HEADER_SIZE; offset < scannedBytes; offset += recordSize(segment, offset)) {
+            offsets.add(offset);
+        }
+        int first = offsets.size();
+        long keptBytes = 0;
+        while (first > 0 && keptBytes + recordSize(segment, offsets.get(first - 1)) <= keepBytes) {
+            first--;
+            keptBytes += recordSize(segment, offsets.get(first));
+        }
+        Path newPath = segmentPath.resolveSibling(SEGMENT_FILE + ".new");
+        try (FileChannel channel = FileChannel.open(newPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(fileHeader());
+            for (int i = first; i < offsets.size(); i++) {
+                ByteBuffer record = segment.duplicate();
+                record.position(offsets.get(i));
+                record.limit(offsets.get(i) + (int) recordSize(segment, offsets.get(i)));
+                channel.write(record);
+            }
+        }
+        Files.move(newPath, segmentPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        refresh();
+    }
+
+    private static ByteBuffer fileHeader() {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+        return header;
+    }
+
+    private static long recordSize(ByteBuffer segment, int offset) {
+        int rows = segment.getInt(offset + Integer.BYTES * 3 + DIGEST_SIZE);
+        int cols = segment.getInt(offset + Integer.BYTES * 4 + DIGEST_SIZE);
+        return RECORD_HEADER_SIZE + (long) Math.max(0, rows) * Math.max(0, cols) * Double.BYTES;
+    }
+
+    private static Key readKey(ByteBuffer segment, int offset) {
+        byte[] digest = new byte[DIGEST_SIZE];
+        segment.get(offset + Integer.BYTES, digest);
+        int variant = segment.getInt(offset + Integer.BYTES + DIGEST_SIZE);
+        int resolution = segment.getInt(offset + Integer.BYTES * 2 + DIGEST_SIZE);
+        return new Key(digest, variant, resolution);
+    }
+
+    /**
+     * the function writes a record - its header, and the brightness as doubles row after row
+     */
+    private static void writeRecord(ByteBuffer record, Key key, double[][] brightness) {
+        int rows = brightness.length;
+        int cols = brightness[0].length;
+        record.position(RECORD_HEADER_SIZE);
+        for (double[] row : brightness) {
+            for (double cell : row) {
+                record.putDouble(cell);
+            }
+        }
+        record.position(0);
+        record.putInt(RECORD_MAGIC).put(key.digest).putInt(key.variant).putInt(key.resolution)
+                .putInt(rows).putInt(cols);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), CHECKED_HEADER_OFFSET, CHECKED_HEADER_SIZE);
+        crc.update(record.array(), RECORD_HEADER_SIZE, record.capacity() - RECORD_HEADER_SIZE);
+        record.putInt((int) crc.getValue());
+        record.position(0);
+    }
+
+    /**
+     * the function checks the CRC of a record over the header fields and the content
+     * @return true if the record is whole
+     */
+    private static boolean isIntact(ByteBuffer segment, int offset) {
+        int expectedCrc = segment.getInt(offset + Integer.BYTES * 5 + DIGEST_SIZE);
+        ByteBuffer header = segment.duplicate();
+        header.position(offset + CHECKED_HEADER_OFFSET);
+        header.limit(offset + CHECKED_HEADER_OFFSET + CHECKED_HEADER_SIZE);
+        ByteBuffer content = segment.duplicate();
+        content.position(offset + RECORD_HEADER_SIZE);
+        content.limit(offset + (int) recordSize(segment, offset));
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(content);
+        return (int) crc.getValue() == expectedCrc;
+    }
+
+    /**
+     * the function reads the brightness of a record, checking its CRC again since the disk may have
+     * damaged it after it was indexed
+     * @return the brightness, or null if the record is damaged
+     */
+    private static double[][] readRecord(ByteBuffer segment, int offset) {
+        if (!isIntact(segment, offset)) {
+            return null;
+        }
+        int rows = segment.getInt(offset + Integer.BYTES * 3 + DIGEST_SIZE);
+        int cols = segment.getInt(offset + Integer.BYTES * 4 + DIGEST_SIZE);
+        ByteBuffer content = segment.duplicate();
+        content.position(offset + RECORD_HEADER_SIZE);
+        double[][] brightness = new double[rows][cols];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                brightness[row][col] = content.getDouble();
+            }
+        }
+        return brightness;
+    }
+}
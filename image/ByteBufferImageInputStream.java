@@ -0,0 +1,49 @@
+package image;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.nio.ByteBuffer;
+
+/**
+ * An ImageInputStream that reads straight from a ByteBuffer - a heap array, a direct buffer or a mapped
+ * file - so ImageIO can decode bytes that are already in memory without copying them to a cache or a file.
+ */
+class ByteBufferImageInputStream extends ImageInputStreamImpl {
+    private final ByteBuffer buffer;
+
+    /**
+     * constructor - the stream reads the bytes between the position and the limit of the buffer, the
+     * position of the buffer itself is not changed
+     * @param buffer the bytes of the image
+     */
+    ByteBufferImageInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public int read() {
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        bitOffset = 0;
+        return buffer.get((int) streamPos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        bitOffset = 0;
+        int count = (int) Math.min(length, buffer.limit() - streamPos);
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) streamPos);
+        view.get(bytes, offset, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+}
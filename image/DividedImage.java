@@ -1,15 +1,15 @@
 package image;
 
-import java.awt.*;
-
 /**
  * a class that take care of dividing the image according to the resolution.
  * the class members are the wanted resolution, the original picture and an array of the divided image.
+ * the sub-images are taken from the original picture the first time they are requested.
  */
 public class DividedImage {
     private final int resolution;// number of sub-pictures in a row
     private final Image image;
     private Image[][] subPictures;
+    private int subSize;
 
     /**
      * the constructor
@@ -24,24 +24,12 @@ public class DividedImage {
     }
 
     /**
-     * the function fills the array subPictures by dividing the original image according to the resolution
-     * and saves each parted image in subPictures.
+     * the function creates the array subPictures according to the resolution, the sub-images themselves
+     * are taken from the original image in getSubImage.
      */
     private void makeSubPictures(){
-        int subSize = image.getWidth()/resolution;
+        subSize = image.getWidth()/resolution;
         subPictures = new Image[image.getHeight()/subSize][resolution];
-        for (int row = 0; row < image.getHeight(); row+=subSize) {
-            for (int col = 0; col < image.getWidth(); col+=subSize) {
-                Color[][] subPixelsArray = new Color[subSize][subSize];
-                for (int i = 0; i < subSize; i++) {
-                    for (int j = 0; j < subSize; j++) {
-                        subPixelsArray[i][j] = image.getPixel(row+i, col+j);
-                    }
-                }
-                Image subImage = new Image(subPixelsArray, subSize, subSize);
-                subPictures[row/subSize][col/subSize] = subImage;
-            }
-        }
     }
 
     /**
@@ -52,6 +40,9 @@ public class DividedImage {
      */
     public Image getSubImage(int row, int col){
         if(subPictures!= null && row >=0 && row<subPictures.length && col >=0 && col<subPictures[0].length) {
+            if(subPictures[row][col] == null){
+                subPictures[row][col] = image.getSubImage(row*subSize, col*subSize, subSize, subSize);
+            }
             return subPictures[row][col];
         }
         return null;
@@ -1,12 +1,18 @@
 package image;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.Objects;
+import java.util.Iterator;
 
 /**
  * A package-private class of the package image.
@@ -17,6 +23,10 @@ public class Image {
     private final Color[][] pixelArray;
     private final int width;
     private final int height;
+    /**
+     * the hash code of the pixels, 0 until it is first calculated. the pixels must not change after that
+     */
+    private int hashCode;
 
     /**
      * Constructor
@@ -24,15 +34,118 @@ public class Image {
      * @throws IOException exception
      */
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(ImageIO.read(new File(filename)));
+    }
+
+    /**
+     * Constructor - decodes only every n-th pixel of the file, where n is the largest power of two that
+     * still leaves every cell of the given resolution at least minCellSize pixels wide.
+     * Use Image(String) for the full-fidelity path.
+     * @param filename name
+     * @param resolution the number of chars in a row the image is going to be rendered with
+     * @param minCellSize quality bound - minimal width in decoded pixels of a single cell
+     * @throws IOException exception
+     */
+    public Image(String filename, int resolution, int minCellSize) throws IOException {
+        this(decode(new File(filename), subsampled(resolution, minCellSize)));
+    }
+
+    /**
+     * Constructor - decodes an image that is already in memory like Image(String, int, int), keeping only
+     * every n-th pixel
+     * @param bytes the encoded image
+     * @param resolution the number of chars in a row the image is going to be rendered with
+     * @param minCellSize quality bound - minimal width in decoded pixels of a single cell
+     * @throws IOException exception
+     */
+    public Image(byte[] bytes, int resolution, int minCellSize) throws IOException {
+        this(decode(new ByteBufferImageInputStream(ByteBuffer.wrap(bytes)),
+                subsampled(resolution, minCellSize)));
+    }
+
+    /**
+     * Constructor - decodes only every subsampling-th pixel of every subsampling-th row of the file
+     * @param filename name
+     * @param subsampling the subsampling factor, 1 decodes the full image
+     * @throws IOException exception
+     */
+    public Image(String filename, int subsampling) throws IOException {
+        this(decode(new File(filename), subsampledBy(subsampling)));
+    }
+
+    /**
+     * Constructor - decodes only the given region of the file with ImageReadParam.setSourceRegion, readers
+     * that support it skip the data outside the region
+     * @param filename name
+     * @param region the region to decode, it must be inside the image
+     * @throws IOException exception
+     */
+    public Image(String filename, Rectangle region) throws IOException {
+        this(decode(new File(filename), (reader, param) -> {
+            param.setSourceRegion(region);
+            return true;
+        }));
+    }
+
+    /**
+     * Constructor - decodes an image from a stream, such as a network connection or the standard input
+     * @param input the stream, read until the end of the image
+     * @throws IOException exception
+     */
+    public Image(InputStream input) throws IOException {
+        this(ImageIO.read(input));
+    }
+
+    /**
+     * Constructor - decodes an image that is already in memory, without copying the bytes
+     * @param bytes the encoded image
+     * @throws IOException exception
+     */
+    public Image(byte[] bytes) throws IOException {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Constructor - decodes the bytes between the position and the limit of a buffer, without copying them.
+     * the buffer may be a heap, direct or mapped buffer.
+     * @param buffer the encoded image
+     * @throws IOException exception
+     */
+    public Image(ByteBuffer buffer) throws IOException {
+        this(decode(new ByteBufferImageInputStream(buffer), (reader, param) -> true));
+    }
+
+    /**
+     * maps a region of a file channel into memory and decodes it, so the bytes are read by the decoder
+     * straight from the page cache
+     * @param channel the channel, open for reading
+     * @param position the offset of the image in the channel
+     * @param size the number of bytes of the image
+     * @return the decoded image
+     * @throws IOException exception
+     */
+    public static Image map(FileChannel channel, long position, long size) throws IOException {
+        return new Image(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+    }
+
+    /**
+     * constructor
+     * @param im a decoded image
+     * @throws IOException if no reader could decode the image
+     */
+    private Image(BufferedImage im) throws IOException {
+        if (im == null) {
+            throw new IOException("Unsupported image format");
+        }
         width = im.getWidth();
         height = im.getHeight();
 
-
         pixelArray = new Color[height][width];
+        int[] rowRgb = new int[width];
         for (int i = 0; i < height; i++) {
+            im.getRGB(0, i, width, 1, rowRgb, 0, width);
             for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
+                pixelArray[i][j]=new Color(rowRgb[j]);
             }
         }
     }
@@ -49,6 +162,142 @@ public class Image {
         this.height = height;
     }
 
+    /**
+     * constructor for images that keep their pixels elsewhere and override the pixel getters
+     * @param width int
+     * @param height int
+     */
+    protected Image(int width, int height) {
+        this.pixelArray = null;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Chooses the subsampling factor for an image of the given width - the largest power of two that
+     * keeps the cells of the padded image at least minCellSize pixels wide.
+     * Powers of two keep the padded size a power of two, so the grid dimensions do not change.
+     * @param width width of the full image
+     * @param resolution the number of chars in a row
+     * @param minCellSize minimal width in pixels of a single cell after subsampling
+     * @return the subsampling factor, 1 if the image must be decoded in full
+     */
+    public static int subsamplingFactor(int width, int resolution, int minCellSize) {
+        int paddedWidth = Integer.highestOneBit(width);
+        if (paddedWidth < width) {
+            paddedWidth <<= 1;
+        }
+        int cellSize = paddedWidth / Math.max(1, resolution);
+        int factor = 1;
+        while (cellSize / (factor * 2) >= Math.max(1, minCellSize)) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
+    /**
+     * reads the size of the image from the header of the file, without decoding it
+     * @param filename name
+     * @return the width and height of the image
+     * @throws IOException if the header can not be read
+     */
+    public static Dimension readSize(String filename) throws IOException {
+        Dimension[] size = new Dimension[1];
+        decode(new File(filename), (reader, param) -> {
+            size[0] = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            return false;
+        });
+        return size[0];
+    }
+
+    /**
+     * reads the size of an image that is already in memory from its header, without decoding it
+     * @param bytes the encoded image
+     * @return the width and height of the image
+     * @throws IOException if the header can not be read
+     */
+    public static Dimension readSize(byte[] bytes) throws IOException {
+        Dimension[] size = new Dimension[1];
+        decode(new ByteBufferImageInputStream(ByteBuffer.wrap(bytes)), (reader, param) -> {
+            size[0] = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            return false;
+        });
+        return size[0];
+    }
+
+    /**
+     * a setup that decodes with ImageReadParam.setSourceSubsampling, choosing the factor from the header
+     * @param resolution the number of chars in a row
+     * @param minCellSize minimal width in pixels of a single cell after subsampling
+     * @return the setup
+     */
+    private static ReadSetup subsampled(int resolution, int minCellSize) {
+        return (reader, param) -> {
+            int factor = subsamplingFactor(reader.getWidth(0), resolution, minCellSize);
+            return subsampledBy(factor).apply(reader, param);
+        };
+    }
+
+    /**
+     * a setup that decodes with ImageReadParam.setSourceSubsampling by a known factor
+     * @param factor the subsampling factor, 1 decodes the full image
+     * @return the setup
+     */
+    private static ReadSetup subsampledBy(int factor) {
+        return (reader, param) -> {
+            param.setSourceSubsampling(factor, factor, 0, 0);
+            return true;
+        };
+    }
+
+    /**
+     * sets up the read parameters of a reader whose header was already read, and tells if the image should
+     * be decoded at all
+     */
+    private interface ReadSetup {
+        boolean apply(ImageReader reader, ImageReadParam param) throws IOException;
+    }
+
+    /**
+     * opens an image stream for the file and decodes it like decode(ImageInputStream, ReadSetup)
+     * @param file the image file
+     * @param setup adjusts the parameters
+     * @return the decoded image, null if the setup only read the header
+     * @throws IOException if the file can not be decoded
+     */
+    private static BufferedImage decode(File file, ReadSetup setup) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException(String.format("Can not open \"%s\"", file));
+        }
+        return decode(input, setup);
+    }
+
+    /**
+     * lets setup read the header of the stream and adjust the read parameters, and decodes the stream with
+     * them. the stream is closed at the end.
+     * @param stream the image stream
+     * @param setup adjusts the parameters
+     * @return the decoded image, null if the setup only read the header
+     * @throws IOException if the stream can not be decoded
+     */
+    private static BufferedImage decode(ImageInputStream stream, ReadSetup setup) throws IOException {
+        try (ImageInputStream input = stream) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                return setup.apply(reader, param) ? reader.read(0, param) : null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
     /**
      * getter
      * @return int width
@@ -75,18 +324,43 @@ public class Image {
         return pixelArray[x][y];
     }
 
+    /**
+     * getter of a pixel as a packed int, like Color.getRGB
+     * @param x row
+     * @param y col
+     * @return the packed pixel in row X col
+     */
+    public int getRGB(int x, int y) {
+        return pixelArray[x][y].getRGB();
+    }
+
+    /**
+     * getter of a part of the image
+     * @param top the first row
+     * @param left the first col
+     * @param width the number of cols
+     * @param height the number of rows
+     * @return an image of the part
+     */
+    public Image getSubImage(int top, int left, int width, int height) {
+        Color[][] subPixelsArray = new Color[height][width];
+        for (int i = 0; i < height; i++) {
+            System.arraycopy(pixelArray[top + i], left, subPixelsArray[i], 0, width);
+        }
+        return new Image(subPixelsArray, width, height);
+    }
+
     /**
      * saving image
      * @param fileName name of the file
      */
     public void saveImage(String fileName){
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
+        // Initialize BufferedImage, assuming the pixels are already properly populated.
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        // Set each pixel of the BufferedImage to the color of the pixel.
+        for (int x = 0; x < height; x++) {
+            for (int y = 0; y < width; y++) {
+                bufferedImage.setRGB(y, x, getRGB(x, y));
             }
         }
         File outputfile = new File(fileName+".jpeg");
@@ -98,13 +372,14 @@ public class Image {
     }
 
     /**
-     * equals
+     * equals - images of different classes are never equal, so the comparison stays symmetric with
+     * subclasses that compare in their own way, like OffHeapImage
      * @param obj object to compare
      * @return true if equal objects
      */
     @Override
     public boolean equals(Object obj) {
-        if(!(obj instanceof Image)){
+        if(obj == null || obj.getClass() != getClass()){
             return false;
         }
         Image otherImage= (Image)obj;
@@ -113,7 +388,7 @@ public class Image {
         }
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                if(!otherImage.getPixel(i,j).equals(pixelArray[i][j])){
+                if(otherImage.getRGB(i,j) != getRGB(i,j)){
                     return false;
                 }
             }
@@ -122,11 +397,17 @@ public class Image {
     }
 
     /**
-     * Hash code override
+     * Hash code override - the pixels are hashed once, every cache lookup after that is free
      * @return a hash number
      */
     @Override
     public int hashCode() {
-        return Objects.hash(Arrays.deepHashCode(pixelArray),width,height);
+        int hash = hashCode;
+        if (hash == 0) {
+            // the value of Objects.hash(deepHashCode, width, height), without boxing the arguments
+            hash = ((31 + Arrays.deepHashCode(pixelArray)) * 31 + width) * 31 + height;
+            hashCode = hash;
+        }
+        return hash;
     }
 }
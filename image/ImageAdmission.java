@@ -0,0 +1,317 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * the class decides, before an image is decoded, how it may be loaded within the memory budget.
+ * it reads only the header of the file, predicts the peak heap of loading it as an Image, padding it and
+ * calculating its brightness (DividedImage no longer copies the pixels, its sub-images are taken lazily),
+ * and then accepts it, downsamples it, moves its pixels off the heap or rejects it. the memory of every
+ * admitted image is reserved until release is called, so concurrent conversions share the same budget.
+ * the budgets and the quality bounds are set from the shell with the budget and preview commands.
+ * an image that fits is still decoded as a preview when the resolution is coarse - subsampled so every cell
+ * keeps at least the preview cell size of pixels, which is enough for its mean. Image(String) stays the
+ * full-fidelity path, used when previews are off or would not subsample.
+ */
+public class ImageAdmission {
+
+    /**
+     * The possible decisions
+     */
+    public enum Decision {
+        /**
+         * the image is decoded in full into the heap
+         */
+        ACCEPT,
+        /**
+         * the resolution is coarse, the image is decoded subsampled into the heap so every cell keeps the
+         * preview cell size
+         */
+        PREVIEW,
+        /**
+         * the image is decoded subsampled into the heap
+         */
+        DOWNSAMPLE,
+        /**
+         * the image is decoded into a memory-mapped OffHeapImage
+         */
+        OFF_HEAP,
+        /**
+         * the image does not fit in any way
+         */
+        REJECT
+    }
+
+    /**
+     * the heap a Color takes, and a reference to it
+     */
+    private static final long COLOR_BYTES = 32;
+    private static final long REFERENCE_BYTES = 8;
+    private static final int DEFAULT_MIN_CELL_SIZE = 4;
+    private static final int DEFAULT_PREVIEW_CELL_SIZE = 16;
+    private static final long MEGABYTE = 1 << 20;
+
+    private static long heapBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+    private static long offHeapBudget = new File(System.getProperty("java.io.tmpdir")).getUsableSpace();
+    private static int minCellSize = DEFAULT_MIN_CELL_SIZE;
+    private static int previewCellSize = DEFAULT_PREVIEW_CELL_SIZE;
+    private static long reservedHeap;
+    private static long reservedOffHeap;
+
+    private final String filename;
+    private final int resolution;
+    private final int loadPreviewCellSize;
+    private final int width;
+    private final int height;
+    private final int bytesPerPixel;
+    private final Decision decision;
+    private final int subsampling;
+    private final long predictedHeap;
+    private long heldHeap;
+    private long heldOffHeap;
+
+    /**
+     * the constructor - reads the header of the file and reserves the memory of the decision
+     * @param filename the image file
+     * @param resolution the number of chars in a row the image is going to be rendered with
+     * @throws IOException if the header can not be read
+     */
+    public ImageAdmission(String filename, int resolution) throws IOException {
+        this.filename = filename;
+        this.resolution = resolution;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filename))) {
+            if (input == null) {
+                throw new IOException(String.format("Can not open \"%s\"", filename));
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                ImageTypeSpecifier rawType = reader.getRawImageType(0);
+                int pixelBits = rawType == null ? Integer.SIZE : rawType.getColorModel().getPixelSize();
+                bytesPerPixel = Math.max(1, (pixelBits + 7) / 8);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        long fullHeap = predictHeap(1, resolution);
+        int maxSubsampling = Image.subsamplingFactor(width, resolution, minCellSize);
+        synchronized (ImageAdmission.class) {
+            loadPreviewCellSize = previewCellSize;
+            int previewFactor = loadPreviewCellSize == 0 ? 1 :
+                    Image.subsamplingFactor(width, resolution, loadPreviewCellSize);
+            long availableHeap = heapBudget - reservedHeap;
+            int factor = 1;
+            while (factor < maxSubsampling && predictHeap(factor, resolution) > availableHeap) {
+                factor *= 2;
+            }
+            long offHeapBytes = (long) width * height * Integer.BYTES;
+            if (previewFactor > 1 && predictHeap(previewFactor, resolution) <= availableHeap) {
+                decision = Decision.PREVIEW;
+                predictedHeap = predictHeap(previewFactor, resolution);
+            } else if (fullHeap <= availableHeap) {
+                decision = Decision.ACCEPT;
+                predictedHeap = fullHeap;
+            } else if (predictHeap(factor, resolution) <= availableHeap) {
+                decision = Decision.DOWNSAMPLE;
+                predictedHeap = predictHeap(factor, resolution);
+            } else if (predictOffHeapHeap(resolution) <= availableHeap &&
+                    offHeapBytes <= offHeapBudget - reservedOffHeap) {
+                decision = Decision.OFF_HEAP;
+                predictedHeap = predictOffHeapHeap(resolution);
+                heldOffHeap = offHeapBytes;
+            } else {
+                decision = Decision.REJECT;
+                predictedHeap = fullHeap;
+            }
+            subsampling = decision == Decision.PREVIEW ? previewFactor :
+                    decision == Decision.DOWNSAMPLE ? factor : 1;
+            if (decision != Decision.REJECT) {
+                heldHeap = predictedHeap;
+                reservedHeap += heldHeap;
+                reservedOffHeap += heldOffHeap;
+            }
+        }
+    }
+
+    /**
+     * Changes the budgets shared by all the admissions
+     * @param heapBytes the heap all the admitted images may take together
+     * @param offHeapBytes the off-heap memory all the admitted images may take together
+     */
+    public static synchronized void setBudget(long heapBytes, long offHeapBytes) {
+        heapBudget = heapBytes;
+        offHeapBudget = offHeapBytes;
+    }
+
+    /**
+     * Changes the quality bound of downsampling
+     * @param cellSize the minimal width in pixels a cell may have after subsampling
+     */
+    public static synchronized void setMinCellSize(int cellSize) {
+        minCellSize = cellSize;
+    }
+
+    /**
+     * Changes the quality bound of the previews of coarse resolutions
+     * @param cellSize the minimal width in pixels a cell may have in a preview, 0 to always decode the
+     *                 image in full when it fits in the budget
+     */
+    public static synchronized void setPreviewCellSize(int cellSize) {
+        previewCellSize = cellSize;
+    }
+
+    /**
+     * getter
+     * @return the minimal width in pixels a cell may have in a preview, 0 if previews are off
+     */
+    public static synchronized int getPreviewCellSize() {
+        return previewCellSize;
+    }
+
+    /**
+     * checks if an image that was loaded as a preview is too coarse for another resolution, so it should be
+     * loaded again
+     * @param newResolution the new number of chars in a row
+     * @return true if the preview would leave the cells of the new resolution smaller than the preview cell
+     * size
+     */
+    public boolean isTooCoarseFor(int newResolution) {
+        return decision == Decision.PREVIEW &&
+                Image.subsamplingFactor(width, newResolution, loadPreviewCellSize) < subsampling;
+    }
+
+    /**
+     * predicts the peak heap of loading the image on the heap - the decoded raster and the Color array
+     * exist together while the Image is built, then the Color array and the padded array exist together
+     * while it is padded. the brightness grid stays after both.
+     * @param factor the subsampling factor
+     * @param resolution the number of chars in a row
+     * @return the predicted number of bytes
+     */
+    private long predictHeap(int factor, int resolution) {
+        long decodedWidth = (width + factor - 1) / factor;
+        long decodedHeight = (height + factor - 1) / factor;
+        long pixels = decodedWidth * decodedHeight;
+        long paddedPixels = paddedSize(decodedWidth) * paddedSize(decodedHeight);
+        long colors = pixels * (COLOR_BYTES + REFERENCE_BYTES);
+        long decode = pixels * bytesPerPixel + colors;
+        long padding = colors + paddedPixels * REFERENCE_BYTES;
+        return Math.max(decode, padding) + gridBytes(decodedWidth, decodedHeight, resolution);
+    }
+
+    /**
+     * predicts the heap of loading the image off the heap - only the brightness grid
+     * @param resolution the number of chars in a row
+     * @return the predicted number of bytes
+     */
+    private long predictOffHeapHeap(int resolution) {
+        return gridBytes(width, height, resolution);
+    }
+
+    /**
+     * @return the bytes of the brightness grid of the padded image in the given resolution
+     */
+    private static long gridBytes(long width, long height, int resolution) {
+        long cellSize = Math.max(1, paddedSize(width) / Math.max(1, resolution));
+        return (paddedSize(height) / cellSize + 1) * resolution * Double.BYTES;
+    }
+
+    /**
+     * @return the closest power of two that is not smaller than size, like PaddingImage
+     */
+    private static long paddedSize(long size) {
+        long padded = 1;
+        while (padded < size) {
+            padded <<= 1;
+        }
+        return padded;
+    }
+
+    /**
+     * loads the image according to the decision
+     * @return the loaded image
+     * @throws IOException if the image was rejected or can not be decoded
+     */
+    public Image load() throws IOException {
+        switch (decision) {
+            case ACCEPT:
+                return new Image(filename);
+            case PREVIEW:
+                return new Image(filename, resolution, loadPreviewCellSize);
+            case DOWNSAMPLE:
+                return new Image(filename, subsampling);
+            case OFF_HEAP:
+                return OffHeapImage.load(filename, true);
+            default:
+                throw new IOException(String.format("Image of %dx%d exceeds the memory budget", width,
+                        height));
+        }
+    }
+
+    /**
+     * returns the memory reserved for the image to the budget, once the image is no longer used
+     */
+    public void release() {
+        synchronized (ImageAdmission.class) {
+            reservedHeap -= heldHeap;
+            reservedOffHeap -= heldOffHeap;
+            heldHeap = 0;
+            heldOffHeap = 0;
+        }
+    }
+
+    /**
+     * getter
+     * @return the decision
+     */
+    public Decision getDecision() {
+        return decision;
+    }
+
+    /**
+     * getter
+     * @return the subsampling factor of a PREVIEW or DOWNSAMPLE decision, 1 otherwise
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * getter
+     * @return the predicted peak heap of the decision, in bytes
+     */
+    public long getPredictedHeap() {
+        return predictedHeap;
+    }
+
+    /**
+     * a description of the decision
+     * @return String
+     */
+    @Override
+    public String toString() {
+        String action;
+        switch (decision) {
+            case ACCEPT: action = "accepted"; break;
+            case PREVIEW: action = String.format("previewed at 1/%d", subsampling); break;
+            case DOWNSAMPLE: action = String.format("downsampled by %d", subsampling); break;
+            case OFF_HEAP: action = "loaded off-heap"; break;
+            default: action = "rejected";
+        }
+        return String.format("Image %dx%d %s (predicted heap %d MB)", width, height, action,
+                predictedHeap / MEGABYTE);
+    }
+}
@@ -1,17 +1,39 @@
 package image;
 
-import java.awt.*;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * the class in responsible for calculating the brightness of each sub-image
  * and saves it in a database by the image and resolution.
+ * the database may be filled from several threads at once, an instance itself is used by one thread.
+ * an image whose file is known can be attached to a BrightnessDiskCache, which is then a second tier of the
+ * database - it is looked up when the brightness is not in memory, and every calculated brightness is
+ * saved to it.
  */
 public class ImageBrightness {
-    private static Map<Image,Map<Integer,double[][]>> brightnessMap= new HashMap<>();
+    private static Map<Image,Map<Integer,double[][]>> brightnessMap= new ConcurrentHashMap<>();
+    private static Map<Image,Map<Integer,int[][]>> colorsMap= new ConcurrentHashMap<>();
+    private static Map<Image,DiskKey> diskKeys= new ConcurrentHashMap<>();
     private final Image image;
     private final int resolution;
+    private double[][] calculatedRows;
+    private int numCalculatedRows;
+
+    /**
+     * the place of an image in the disk cache
+     */
+    private static class DiskKey {
+        private final BrightnessDiskCache cache;
+        private final byte[] digest;
+        private final int variant;
+
+        DiskKey(BrightnessDiskCache cache, byte[] digest, int variant){
+            this.cache = cache;
+            this.digest = digest;
+            this.variant = variant;
+        }
+    }
 
     /**
      * the constructor - given the original image and tha wanted resolution
@@ -24,22 +46,12 @@ public class ImageBrightness {
     }
 
     /**
-     * the function calculates the gray scale of each pixel in each sub picture
-     * @param curSubImage the current sub image to calculate
-     * @return the normalized gary scale of the whole sub picture
+     * the function calculates the gray scale of a single pixel
+     * @param rgb the packed pixel color, as returned by Color.getRGB
+     * @return the gray scale of the pixel, between 0 and 255
      */
-    private double grayScaleSubImage(Image curSubImage){
-        double sumGraySubImage = 0;
-        int numPixel = curSubImage.getHeight()*curSubImage.getWidth();
-        for (int row = 0; row < curSubImage.getHeight(); row++) {
-            for (int col = 0; col <curSubImage.getWidth(); col++) {
-                Color currenPixel = curSubImage.getPixel(row, col);
-                double greyPixel = currenPixel.getRed() * 0.2126 + currenPixel.getGreen() * 0.7152
-                        + currenPixel.getBlue() * 0.0722;
-                sumGraySubImage+= greyPixel;
-            }
-        }
-        return (sumGraySubImage/(numPixel)/255);
+    static double greyPixel(int rgb){
+        return ((rgb >> 16) & 0xFF) * 0.2126 + ((rgb >> 8) & 0xFF) * 0.7152 + (rgb & 0xFF) * 0.0722;
     }
 
     /**
@@ -47,26 +59,170 @@ public class ImageBrightness {
      * @return an array of the sub pictures normalized gray scale
      */
     private double[][] fillBrightnessMap(){
-        DividedImage dividedImage = new DividedImage(resolution, image);
-        int numSub =0;
-        double[][] greyImage = new double[dividedImage.getHeight()][dividedImage.getWidth()];
-        double GraySubImage;
-        for (int row = 0; row < dividedImage.getHeight(); row++) {
-            for (int col = 0; col < dividedImage.getWidth(); col++) {
-                Image curSubImage = dividedImage.getSubImage(row,col);
-                numSub++;
-                if(numSub>=0) {
-                    GraySubImage = grayScaleSubImage(curSubImage);
-                    greyImage[row][col] = GraySubImage;
-                }
+        double[][] greyImage = new double[getRows()][];
+        for (int row = 0; row < greyImage.length; row++) {
+            greyImage[row] = calculateRowFromPixels(row, null);
+        }
+        save(greyImage);
+        return greyImage;
+    }
+
+    /**
+     * the function attaches an image to a disk cache, so its brightness is looked up in the cache and saved
+     * to it
+     * @param image the padded image
+     * @param cache the disk cache
+     * @param digest the digest of the file the image was decoded from
+     * @param variant the way the file was decoded, e.g. its subsampling factor
+     */
+    public static void attachDiskCache(Image image, BrightnessDiskCache cache, byte[] digest, int variant){
+        diskKeys.put(image, new DiskKey(cache, digest, variant));
+    }
+
+    /**
+     * the function returns the saved brightness of the image and resolution - from the map, or else from
+     * the disk cache, in which case it is saved in the map too
+     * @return the saved brightness, or null if it was not calculated
+     */
+    private double[][] savedBrightness(){
+        Map<Integer, double[][]> curResolutionMap = brightnessMap.get(image);
+        double[][] greyImage = curResolutionMap == null ? null : curResolutionMap.get(resolution);
+        DiskKey diskKey = diskKeys.get(image);
+        if(greyImage == null && diskKey != null){
+            greyImage = diskKey.cache.get(diskKey.digest, diskKey.variant, resolution);
+            if(greyImage != null){
+                brightnessMap.computeIfAbsent(image, key -> new ConcurrentHashMap<>())
+                        .putIfAbsent(resolution, greyImage);
             }
         }
+        return greyImage;
+    }
+
+    /**
+     * the function saves a calculated brightness in the map and in the disk cache of the image
+     * @param greyImage the brightness
+     */
+    private void save(double[][] greyImage){
         //updating the map that saves all
-        if(!brightnessMap.containsKey(image)){
-            brightnessMap.put(image, new HashMap<Integer,double[][]>());
+        brightnessMap.computeIfAbsent(image, key -> new ConcurrentHashMap<>()).put(resolution, greyImage);
+        DiskKey diskKey = diskKeys.get(image);
+        if(diskKey != null){
+            diskKey.cache.put(diskKey.digest, diskKey.variant, resolution, greyImage);
         }
-        brightnessMap.get(image).put(resolution, greyImage);
-        return greyImage;
+    }
+
+    /**
+     * getter of the number of rows
+     * @return the number of sub pictures in a column of the image
+     */
+    public int getRows(){
+        return image.getHeight()/(image.getWidth()/resolution);
+    }
+
+    /**
+     * the function returns the brightness of a single row of sub pictures - the saved row if the brightness
+     * of the resolution was already calculated, else it calculates it straight from the image pixels.
+     * once every row was calculated the brightness is saved in the map.
+     * @param row the row number
+     * @return an array of the normalized gray scale of the sub pictures in the row
+     */
+    public double[] calculateRow(int row){
+        if(calculatedRows == null){
+            calculatedRows = savedBrightness();
+            if(calculatedRows != null){
+                numCalculatedRows = calculatedRows.length;
+                return calculatedRows[row];
+            }
+            calculatedRows = new double[getRows()][];
+        }
+        if(calculatedRows[row] == null){
+            calculatedRows[row] = calculateRowFromPixels(row, null);
+            numCalculatedRows++;
+            if(numCalculatedRows == calculatedRows.length){
+                save(calculatedRows);
+            }
+        }
+        return calculatedRows[row];
+    }
+
+    /**
+     * the function calculates the normalized gray scale of every sub picture in a row, reading the pixels
+     * straight from the image. if colorRow is given, the mean color of every sub picture is calculated in the
+     * same pass.
+     * @param row the row number
+     * @param colorRow the array the mean colors are written to, packed as 0xRRGGBB, or null
+     * @return an array of the normalized gray scale of the sub pictures in the row
+     */
+    private double[] calculateRowFromPixels(int row, int[] colorRow){
+        int subSize = image.getWidth()/resolution;
+        double[] greyRow = new double[resolution];
+        for (int col = 0; col < resolution; col++) {
+            double sumGraySubImage = 0;
+            if(colorRow == null){
+                for (int i = 0; i < subSize; i++) {
+                    for (int j = 0; j < subSize; j++) {
+                        sumGraySubImage += greyPixel(image.getRGB(row*subSize + i, col*subSize + j));
+                    }
+                }
+            }
+            else {
+                long sumRed = 0, sumGreen = 0, sumBlue = 0;
+                for (int i = 0; i < subSize; i++) {
+                    for (int j = 0; j < subSize; j++) {
+                        int rgb = image.getRGB(row*subSize + i, col*subSize + j);
+                        sumGraySubImage += greyPixel(rgb);
+                        sumRed += (rgb >> 16) & 0xFF;
+                        sumGreen += (rgb >> 8) & 0xFF;
+                        sumBlue += rgb & 0xFF;
+                    }
+                }
+                long pixels = (long) subSize*subSize;
+                colorRow[col] = (int) (sumRed/pixels) << 16 | (int) (sumGreen/pixels) << 8 |
+                        (int) (sumBlue/pixels);
+            }
+            greyRow[col] = sumGraySubImage/(subSize*subSize)/255;
+        }
+        return greyRow;
+    }
+
+    /**
+     * the function checks if the given resolution and image are already exists in the colors map- if so
+     * returns the saved mean colors else, calculates them together with the brightness, and saves both.
+     * @return an array of the mean color of every sub picture, packed as 0xRRGGBB
+     */
+    public int[][] calculateColors(){
+        Map<Integer, int[][]> curResolutionMap = colorsMap.get(image);
+        if(curResolutionMap != null && curResolutionMap.get(resolution) != null){
+            return curResolutionMap.get(resolution);
+        }
+        int[][] colors = new int[getRows()][resolution];
+        double[][] greyImage = new double[colors.length][];
+        for (int row = 0; row < colors.length; row++) {
+            greyImage[row] = calculateRowFromPixels(row, colors[row]);
+        }
+        brightnessMap.computeIfAbsent(image, key -> new ConcurrentHashMap<>())
+                .putIfAbsent(resolution, greyImage);
+        colorsMap.computeIfAbsent(image, key -> new ConcurrentHashMap<>()).put(resolution, colors);
+        return colors;
+    }
+
+    /**
+     * the function checks if the brightness of the given resolution and image was already calculated
+     * @return true if calculateBrightness will return a saved array.
+     */
+    public boolean isCalculated(){
+        return savedBrightness() != null;
+    }
+
+    /**
+     * the function removes the saved brightness and colors of an image in all the resolutions, and detaches
+     * it from its disk cache, which keeps the brightness for the next time the file is used
+     * @param image the image that is no longer used
+     */
+    public static void forget(Image image){
+        brightnessMap.remove(image);
+        colorsMap.remove(image);
+        diskKeys.remove(image);
     }
 
     /**
@@ -75,14 +231,9 @@ public class ImageBrightness {
      * @return an array of brightness.
      */
     public double[][] calculateBrightness(){
-        if(brightnessMap.containsKey(image)) {
-            Map<Integer, double[][]> curResolutionMap = brightnessMap.get(image);
-            if(curResolutionMap.containsKey(resolution)){
-                double[][] brightnessArray = curResolutionMap.get(resolution);
-                if (brightnessArray!= null) {
-                    return brightnessArray;
-                }
-            }
+        double[][] brightnessArray = savedBrightness();
+        if (brightnessArray!= null) {
+            return brightnessArray;
         }
         return fillBrightnessMap();
     }
@@ -0,0 +1,436 @@
+package image;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * the class is responsible for finding the dominant edge of each sub-image, and saves it in a database by
+ * the image and resolution together with the brightness of the sub-image, which is calculated in the same
+ * pass over the pixels.
+ * the luminance is summed into square bins, so a sub-image has at most GRADIENTS_PER_SIDE bins in a row -
+ * finer gradients would cost a pass over every pixel and add little to the direction of a whole sub-image.
+ * a bin has at least MIN_BIN_SIZE pixels in a row, unless the sub-image would have less than two bins in a
+ * row.
+ * the gradient of the binned luminance is calculated with the Scharr operator, as two separable passes - a
+ * derivative and a smoothing along the row, then along the column - over a ring of three rows of bins.
+ * the gradients of a sub-image are summed into a structure tensor, which gives the direction of its edge and
+ * how coherent it is. a sub-image has an edge if its gradient is as strong as a step of EDGE_CONTRAST across
+ * it, and coherent enough to not be a texture.
+ * bands of rows of sub-images are calculated in parallel, each thread reusing its own buffers, and a
+ * BandListener is told of every band so a render can report its progress and stop between bands.
+ */
+public class ImageEdges {
+    /**
+     * the sub-image has no strong edge
+     */
+    public static final byte NO_EDGE = -1;
+    /**
+     * an edge from the top to the bottom of the sub-image
+     */
+    public static final byte VERTICAL = 0;
+    /**
+     * an edge from the bottom left to the top right of the sub-image
+     */
+    public static final byte RISING = 1;
+    /**
+     * an edge from the left to the right of the sub-image
+     */
+    public static final byte HORIZONTAL = 2;
+    /**
+     * an edge from the top left to the bottom right of the sub-image
+     */
+    public static final byte FALLING = 3;
+    /**
+     * an edge from the left to the right along the bottom of the sub-image
+     */
+    public static final byte BOTTOM = 4;
+
+    /**
+     * the largest number of bins in a row of a sub-image
+     */
+    private static final int GRADIENTS_PER_SIDE = 4;
+    /**
+     * the smallest number of pixels in a row of a bin
+     */
+    private static final int MIN_BIN_SIZE = 2;
+    /**
+     * the smallest step of normalized luminance across a sub-image that makes an edge
+     */
+    private static final double EDGE_CONTRAST = 0.25;
+    /**
+     * the smallest coherence of the gradients of a sub-image with an edge, between 0 for no single direction
+     * and 1 for a single direction
+     */
+    private static final double MIN_COHERENCE = 0.5;
+    /**
+     * a horizontal edge whose gradients are centered below this part of the sub-image is on its bottom
+     */
+    private static final double BOTTOM_CENTER = 2.0 / 3;
+    /**
+     * the cosine of twice the angle between a direction and the diagonal ones
+     */
+    private static final double DIAGONAL_COSINE = Math.cos(Math.PI / 4);
+    /**
+     * the weights of the Scharr smoothing, and their sum times the derivative step of 2
+     */
+    private static final double SIDE_WEIGHT = 3;
+    private static final double CENTER_WEIGHT = 10;
+    private static final double SCHARR_NORM = 32;
+    /**
+     * the number of bands of rows of sub-images that are calculated in parallel, per processor. a band reads
+     * the rows of bins next to it too, so the bands are not smaller than needed for balancing the threads
+     */
+    private static final int BANDS_PER_PROCESSOR = 4;
+
+    private static Map<Image, Map<Integer, Cells>> edgesMap = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final Image image;
+    private final int resolution;
+    private final int subSize;
+    private final int binSize;
+    private final int binsPerCell;
+
+    /**
+     * the edges and the brightness of the sub-images of an image in a resolution
+     */
+    private static class Cells {
+        private final byte[][] edges;
+        private final double[][] brightness;
+
+        Cells(int rows, int cols) {
+            edges = new byte[rows][cols];
+            brightness = new double[rows][cols];
+        }
+    }
+
+    /**
+     * the buffers of a thread - the ring of rows of bins and their row passes, and the sums of the
+     * sub-images of a row
+     */
+    private static class Buffers {
+        private double[][] luminance = new double[3][0];
+        private double[][] derivative = new double[3][0];
+        private double[][] smoothed = new double[3][0];
+        private double[] greySums = new double[0];
+        private double[] xx = new double[0];
+        private double[] yy = new double[0];
+        private double[] xy = new double[0];
+        private double[] yyOffsets = new double[0];
+
+        void ensureSize(int bins, int cols) {
+            if (luminance[0].length != bins) {
+                luminance = new double[3][bins];
+                derivative = new double[3][bins];
+                smoothed = new double[3][bins];
+            }
+            if (greySums.length != cols) {
+                greySums = new double[cols];
+                xx = new double[cols];
+                yy = new double[cols];
+                xy = new double[cols];
+                yyOffsets = new double[cols];
+            }
+        }
+    }
+
+    /**
+     * the constructor - given the original image and tha wanted resolution
+     * @param image the original image
+     * @param resolution given resolution
+     */
+    public ImageEdges(Image image, int resolution) {
+        this.image = image;
+        this.resolution = resolution;
+        this.subSize = image.getWidth() / resolution;
+        int wantedBinSize = Math.max(1,
+                Math.max(subSize / GRADIENTS_PER_SIDE, Math.min(MIN_BIN_SIZE, subSize / 2)));
+        this.binSize = subSize % wantedBinSize == 0 ? wantedBinSize : 1;
+        this.binsPerCell = subSize / binSize;
+    }
+
+    /**
+     * the function removes the saved edges and brightness of an image that is no longer used, so the map
+     * does not keep the image
+     * @param image the image that is no longer used
+     */
+    public static void forget(Image image) {
+        edgesMap.remove(image);
+    }
+
+    /**
+     * a listener of the bands of rows of sub-images, called from the threads that calculate them
+     */
+    public interface BandListener {
+        /**
+         * called before a band starts and after it is done - it may stop the calculation by throwing, then
+         * the bands that did not start are skipped and nothing is saved
+         * @param bandsDone the number of bands that are done
+         * @param bands the number of bands
+         */
+        void onBand(int bandsDone, int bands);
+    }
+
+    /**
+     * the function returns the dominant edge of every sub-image, calculating it if it is not saved
+     * @return an array of NO_EDGE or the direction of the edge of every sub-image
+     */
+    public byte[][] calculateEdges() {
+        return cells(null).edges;
+    }
+
+    /**
+     * the function returns the dominant edge of every sub-image, calculating it if it is not saved and
+     * reporting every band of the calculation to the listener
+     * @param listener the listener of the bands
+     * @return an array of NO_EDGE or the direction of the edge of every sub-image
+     */
+    public byte[][] calculateEdges(BandListener listener) {
+        return cells(listener).edges;
+    }
+
+    /**
+     * the function returns the normalized gray scale of every sub-image, calculated with the edges. it is
+     * the same as the brightness of ImageBrightness
+     * @return an array of the sub pictures normalized gray scale
+     */
+    public double[][] calculateBrightness() {
+        return cells(null).brightness;
+    }
+
+    private Cells cells(BandListener listener) {
+        Map<Integer, Cells> curResolutionMap = edgesMap.get(image);
+        Cells cells = curResolutionMap == null ? null : curResolutionMap.get(resolution);
+        if (cells == null) {
+            int rows = image.getHeight() / subSize;
+            Cells newCells = new Cells(rows, resolution);
+            int bands = Math.min(rows, BANDS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+            AtomicInteger bandsDone = new AtomicInteger();
+            IntStream.range(0, bands).parallel().forEach(band -> {
+                if (listener != null) {
+                    listener.onBand(bandsDone.get(), bands);
+                }
+                fillRows(newCells, band * rows / bands, (band + 1) * rows / bands);
+                int done = bandsDone.incrementAndGet();
+                if (listener != null) {
+                    listener.onBand(done, bands);
+                }
+            });
+            edgesMap.computeIfAbsent(image, key -> new ConcurrentHashMap<>()).put(resolution, newCells);
+            cells = newCells;
+        }
+        return cells;
+    }
+
+    /**
+     * the function sweeps the ring over the rows of bins of a band of rows of sub-images, calculates their
+     * gradients, and sums them into the edges and the brightness of the sub-images
+     * @param cells the arrays to fill
+     * @param firstRow the first row of sub-images of the band
+     * @param endRow the row of sub-images after the band
+     */
+    private void fillRows(Cells cells, int firstRow, int endRow) {
+        Buffers buffers = BUFFERS.get();
+        buffers.ensureSize(image.getWidth() / binSize, resolution);
+        Arrays.fill(buffers.greySums, 0);
+        clearTensors(buffers);
+        int top = firstRow * binsPerCell;
+        int bottom = endRow * binsPerCell;
+        loadBinRow(buffers, top - 1, false);
+        loadBinRow(buffers, top, true);
+        for (int binRow = top; binRow < bottom; binRow++) {
+            int offset = binRow % binsPerCell;
+            int row = binRow / binsPerCell;
+            // the gray scale of the sub-images is complete before the next row of bins starts the next ones
+            if (offset == binsPerCell - 1) {
+                for (int col = 0; col < resolution; col++) {
+                    cells.brightness[row][col] = buffers.greySums[col] / (subSize * subSize) / 255;
+                }
+                Arrays.fill(buffers.greySums, 0);
+            }
+            loadBinRow(buffers, binRow + 1, binRow + 1 < bottom);
+            sumGradients(buffers, binRow, offset);
+            if (offset == binsPerCell - 1) {
+                // the gradients were summed before dividing by the norm of the operator and the bins
+                double norm = SCHARR_NORM * binSize * binSize * 255;
+                norm *= norm;
+                for (int col = 0; col < resolution; col++) {
+                    cells.edges[row][col] = edge(buffers.xx[col] / norm, buffers.yy[col] / norm,
+                            buffers.xy[col] / norm, buffers.yyOffsets[col] / norm);
+                }
+                clearTensors(buffers);
+            }
+        }
+    }
+
+    private static void clearTensors(Buffers buffers) {
+        Arrays.fill(buffers.xx, 0);
+        Arrays.fill(buffers.yy, 0);
+        Arrays.fill(buffers.xy, 0);
+        Arrays.fill(buffers.yyOffsets, 0);
+    }
+
+    /**
+     * the function reads the pixels of a row of bins into the ring - the luminance of the bins, and its
+     * derivative and smoothing along the row. rows outside the image repeat the nearest row. the gray scale
+     * of a row of the band is added to the sums of its sub-images in the order ImageBrightness adds it, so
+     * the sums are the same.
+     * @param buffers the buffers of the thread
+     * @param binRow the row of bins
+     * @param inBand whether the row is in the band, or only next to it
+     */
+    private void loadBinRow(Buffers buffers, int binRow, boolean inBand) {
+        Image image = this.image;
+        int slot = Math.floorMod(binRow, 3);
+        double[] luminance = buffers.luminance[slot];
+        int firstPixelRow = Math.min(Math.max(binRow, 0), image.getHeight() / binSize - 1) * binSize;
+        if (binSize == 1) {
+            // a bin is a pixel, its luminance is written straight
+            for (int col = 0, x = 0; col < resolution; col++) {
+                double sumGray = buffers.greySums[col];
+                for (int endX = x + subSize; x < endX; x++) {
+                    double grey = ImageBrightness.greyPixel(image.getRGB(firstPixelRow, x));
+                    sumGray += grey;
+                    luminance[x] = grey;
+                }
+                if (inBand) {
+                    buffers.greySums[col] = sumGray;
+                }
+            }
+        }
+        else if (binSize == 2) {
+            // the small bins of 4 to 8 pixel sub-images take their luminance from their top row only, the
+            // bottom row is only added to the gray scale
+            int bins = luminance.length;
+            int col = 0;
+            double sumGray = buffers.greySums[0];
+            for (int bin = 0, x = 0, cellEnd = binsPerCell; bin < bins; bin++, x += 2) {
+                double left = ImageBrightness.greyPixel(image.getRGB(firstPixelRow, x));
+                double right = ImageBrightness.greyPixel(image.getRGB(firstPixelRow, x + 1));
+                sumGray += left;
+                sumGray += right;
+                luminance[bin] = 2 * (left + right);
+                if (bin + 1 == cellEnd) {
+                    if (inBand) {
+                        buffers.greySums[col] = sumGray;
+                    }
+                    col++;
+                    cellEnd += binsPerCell;
+                    sumGray = col < resolution ? buffers.greySums[col] : 0;
+                }
+            }
+            if (inBand) {
+                int y = firstPixelRow + 1;
+                for (int c = 0, x = 0; c < resolution; c++) {
+                    double sum = buffers.greySums[c];
+                    for (int endX = x + subSize; x < endX; x++) {
+                        sum += ImageBrightness.greyPixel(image.getRGB(y, x));
+                    }
+                    buffers.greySums[c] = sum;
+                }
+            }
+        }
+        else {
+            Arrays.fill(luminance, 0);
+            for (int y = firstPixelRow; y < firstPixelRow + binSize; y++) {
+                for (int col = 0, bin = 0, x = 0; col < resolution; col++) {
+                    double sumGray = buffers.greySums[col];
+                    for (int endBin = bin + binsPerCell; bin < endBin; bin++) {
+                        double binGray = 0;
+                        for (int endX = x + binSize; x < endX; x++) {
+                            double grey = ImageBrightness.greyPixel(image.getRGB(y, x));
+                            sumGray += grey;
+                            binGray += grey;
+                        }
+                        luminance[bin] += binGray;
+                    }
+                    if (inBand) {
+                        buffers.greySums[col] = sumGray;
+                    }
+                }
+            }
+        }
+        double[] derivative = buffers.derivative[slot];
+        double[] smoothed = buffers.smoothed[slot];
+        int last = luminance.length - 1;
+        derivative[0] = luminance[1] - luminance[0];
+        smoothed[0] = SIDE_WEIGHT * (luminance[0] + luminance[1]) + CENTER_WEIGHT * luminance[0];
+        for (int bin = 1; bin < last; bin++) {
+            derivative[bin] = luminance[bin + 1] - luminance[bin - 1];
+            smoothed[bin] = SIDE_WEIGHT * (luminance[bin - 1] + luminance[bin + 1]) +
+                    CENTER_WEIGHT * luminance[bin];
+        }
+        derivative[last] = luminance[last] - luminance[last - 1];
+        smoothed[last] = SIDE_WEIGHT * (luminance[last - 1] + luminance[last]) +
+                CENTER_WEIGHT * luminance[last];
+    }
+
+    /**
+     * the function calculates the gradients of a row of bins from the ring, and adds their squares and
+     * products to the sums of its sub-images
+     * @param buffers the buffers of the thread
+     * @param binRow the row of bins
+     * @param offset the row of the bins in their sub-images
+     */
+    private void sumGradients(Buffers buffers, int binRow, int offset) {
+        double[] previousDerivative = buffers.derivative[Math.floorMod(binRow - 1, 3)];
+        double[] derivative = buffers.derivative[Math.floorMod(binRow, 3)];
+        double[] nextDerivative = buffers.derivative[Math.floorMod(binRow + 1, 3)];
+        double[] previousSmoothed = buffers.smoothed[Math.floorMod(binRow - 1, 3)];
+        double[] nextSmoothed = buffers.smoothed[Math.floorMod(binRow + 1, 3)];
+        double xx = 0, yy = 0, xy = 0;
+        int bins = derivative.length;
+        for (int bin = 0, col = 0, cellEnd = binsPerCell; bin < bins; bin++) {
+            double gradientX = SIDE_WEIGHT * (previousDerivative[bin] + nextDerivative[bin]) +
+                    CENTER_WEIGHT * derivative[bin];
+            double gradientY = nextSmoothed[bin] - previousSmoothed[bin];
+            xx += gradientX * gradientX;
+            yy += gradientY * gradientY;
+            xy += gradientX * gradientY;
+            if (bin + 1 == cellEnd) {
+                buffers.xx[col] += xx;
+                buffers.yy[col] += yy;
+                buffers.xy[col] += xy;
+                buffers.yyOffsets[col] += yy * offset;
+                xx = 0;
+                yy = 0;
+                xy = 0;
+                col++;
+                cellEnd += binsPerCell;
+            }
+        }
+    }
+
+    /**
+     * the function finds the edge of a sub-image from the structure tensor of its gradients
+     * @param xx the sum of the squares of the horizontal gradients
+     * @param yy the sum of the squares of the vertical gradients
+     * @param xy the sum of the products of the gradients
+     * @param yyOffsets the sum of the squares of the vertical gradients times their row in the sub-image
+     * @return NO_EDGE or the direction of the edge
+     */
+    private byte edge(double xx, double yy, double xy, double yyOffsets) {
+        double energy = xx + yy;
+        // a step of contrast c across the sub-image adds about c*c/2 in every row of bins it crosses
+        if (energy <= 0 || energy < EDGE_CONTRAST * EDGE_CONTRAST / 2 * binsPerCell) {
+            return NO_EDGE;
+        }
+        double difference = xx - yy;
+        double anisotropy = Math.sqrt(difference * difference + 4 * xy * xy);
+        if (anisotropy < MIN_COHERENCE * energy) {
+            return NO_EDGE;
+        }
+        // the gradient is at half the angle of (xx - yy, 2xy) from the horizontal, and the edge is across it
+        double doubleAngleCosine = difference / anisotropy;
+        if (doubleAngleCosine >= DIAGONAL_COSINE) {
+            return VERTICAL;
+        }
+        if (doubleAngleCosine <= -DIAGONAL_COSINE) {
+            return yyOffsets / yy > BOTTOM_CENTER * (binsPerCell - 1) ? BOTTOM : HORIZONTAL;
+        }
+        return xy > 0 ? RISING : FALLING;
+    }
+}
@@ -0,0 +1,108 @@
+package image;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * the class is responsible for calculating the thresholded 16X16 bitmap of each sub-image, packed into four
+ * 64-bit words, and saves it in a database by the image and resolution.
+ * bit (row * 16 + col) is set when the matching block of the sub-image is brighter than the threshold.
+ */
+public class ImageShapes {
+    /**
+     * the number of bits in a row of a bitmap
+     */
+    public static final int BITMAP_SIZE = 16;
+    /**
+     * the number of words a single bitmap takes
+     */
+    public static final int WORDS_PER_BITMAP = BITMAP_SIZE * BITMAP_SIZE / 64;
+    private static final double THRESHOLD = 255 / 2.0;
+    private static Map<Image,Map<Integer,long[][]>> shapesMap = new ConcurrentHashMap<>();
+    private final Image image;
+    private final int resolution;
+
+    /**
+     * the constructor - given the original image and tha wanted resolution
+     * @param image the original image
+     * @param resolution given resolution
+     */
+    public ImageShapes(Image image, int resolution){
+        this.image = image;
+        this.resolution = resolution;
+    }
+
+    /**
+     * the function removes the saved bitmaps of an image that is no longer used, so the map does not keep
+     * the image
+     * @param image the image that is no longer used
+     */
+    public static void forget(Image image){
+        shapesMap.remove(image);
+    }
+
+    /**
+     * the function checks if the given resolution and image are already exists in the map- if so returns
+     * the saved bitmaps else, calculates them.
+     * @return an array of rows, each one holding the WORDS_PER_BITMAP words of every sub-image in the row
+     */
+    public long[][] calculateShapes(){
+        Map<Integer, long[][]> curResolutionMap = shapesMap.get(image);
+        if(curResolutionMap != null && curResolutionMap.get(resolution) != null){
+            return curResolutionMap.get(resolution);
+        }
+        long[][] shapes = fillShapes();
+        shapesMap.computeIfAbsent(image, key -> new ConcurrentHashMap<>()).put(resolution, shapes);
+        return shapes;
+    }
+
+    /**
+     * the function calculates the bitmaps of all the sub pictures
+     * @return an array of the packed bitmaps
+     */
+    private long[][] fillShapes(){
+        int subSize = image.getWidth()/resolution;
+        int rows = image.getHeight()/subSize;
+        long[][] shapes = new long[rows][resolution * WORDS_PER_BITMAP];
+        int[] blockStarts = new int[BITMAP_SIZE + 1];
+        for (int i = 0; i <= BITMAP_SIZE; i++) {
+            blockStarts[i] = i * subSize / BITMAP_SIZE;
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < resolution; col++) {
+                fillBitmap(shapes[row], col * WORDS_PER_BITMAP, row * subSize, col * subSize, blockStarts);
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * the function thresholds the mean gray scale of every block of a sub picture into one bit.
+     * if the sub picture is smaller than the bitmap, blocks are a single pixel and repeat.
+     * @param words the row of bitmaps to write to
+     * @param offset the index of the first word of the bitmap
+     * @param top the first row of the sub picture in the image
+     * @param left the first col of the sub picture in the image
+     * @param blockStarts the offset of every block from the sub picture edge
+     */
+    private void fillBitmap(long[] words, int offset, int top, int left, int[] blockStarts){
+        for (int bitRow = 0; bitRow < BITMAP_SIZE; bitRow++) {
+            int rowStart = blockStarts[bitRow];
+            int rowEnd = Math.max(rowStart + 1, blockStarts[bitRow + 1]);
+            for (int bitCol = 0; bitCol < BITMAP_SIZE; bitCol++) {
+                int colStart = blockStarts[bitCol];
+                int colEnd = Math.max(colStart + 1, blockStarts[bitCol + 1]);
+                double sum = 0;
+                for (int i = rowStart; i < rowEnd; i++) {
+                    for (int j = colStart; j < colEnd; j++) {
+                        sum += ImageBrightness.greyPixel(image.getRGB(top + i, left + j));
+                    }
+                }
+                if(sum > THRESHOLD * (rowEnd - rowStart) * (colEnd - colStart)){
+                    int bit = bitRow * BITMAP_SIZE + bitCol;
+                    words[offset + (bit >> 6)] |= 1L << (bit & 63);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package image;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the class calculates the brightness of the sub-images of a rectangle of an image file, decoding only the
+ * part of the file the rectangle covers. the sub-images are aligned to a grid of the image that depends only
+ * on the sub-image size, and their brightness is saved in a database by the file and the sub-image size, so
+ * moving the rectangle only calculates the sub-images that were not seen yet.
+ * pixels outside the image are white, like the padding of PaddingImage.
+ */
+public class ImageViewport {
+    /**
+     * the number of sub-images in a row and in a column of a saved block
+     */
+    private static final int BLOCK_SIZE = 32;
+    private static final double WHITE = 255;
+    private static Map<String, Map<Integer, Map<Long, double[]>>> cellsMap = new HashMap<>();
+
+    private final String filename;
+    private final String fileKey;
+    private final int imageWidth;
+    private final int imageHeight;
+
+    /**
+     * the constructor - reads only the header of the file
+     * @param filename the image file
+     * @throws IOException if the header can not be read
+     */
+    public ImageViewport(String filename) throws IOException {
+        this.filename = filename;
+        File file = new File(filename);
+        this.fileKey = file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length();
+        Dimension size = Image.readSize(filename);
+        this.imageWidth = size.width;
+        this.imageHeight = size.height;
+    }
+
+    /**
+     * getter
+     * @return the width of the image
+     */
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    /**
+     * getter
+     * @return the height of the image
+     */
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * the function calculates the normalized gray scale of the sub-images of a rectangle of the image.
+     * the sub-image size is width/cols, and the rectangle is moved to the top left to start on the grid of
+     * that size.
+     * @param x the first col of the rectangle
+     * @param y the first row of the rectangle
+     * @param width the number of cols of the rectangle
+     * @param height the number of rows of the rectangle
+     * @param cols the number of sub-images in a row
+     * @return an array of the sub pictures normalized gray scale
+     * @throws IOException if the region can not be decoded
+     */
+    public double[][] calculateBrightness(int x, int y, int width, int height, int cols) throws IOException {
+        int subSize = Math.max(1, width / cols);
+        int firstRow = y / subSize;
+        int firstCol = x / subSize;
+        int rows = Math.max(1, height / subSize);
+        Map<Long, double[]> blocks = cellsMap.computeIfAbsent(fileKey, key -> new HashMap<>())
+                .computeIfAbsent(subSize, key -> new HashMap<>());
+
+        int minRow = Integer.MAX_VALUE, maxRow = -1, minCol = Integer.MAX_VALUE, maxCol = -1;
+        for (int row = firstRow; row < firstRow + rows; row++) {
+            for (int col = firstCol; col < firstCol + cols; col++) {
+                if (Double.isNaN(getBlock(blocks, row, col)[cellIndex(row, col)])) {
+                    minRow = Math.min(minRow, row);
+                    maxRow = Math.max(maxRow, row);
+                    minCol = Math.min(minCol, col);
+                    maxCol = Math.max(maxCol, col);
+                }
+            }
+        }
+        if (maxRow >= 0) {
+            fillCells(blocks, subSize, minRow, maxRow, minCol, maxCol);
+        }
+
+        double[][] greyImage = new double[rows][cols];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                greyImage[row][col] = getBlock(blocks, firstRow + row, firstCol + col)
+                        [cellIndex(firstRow + row, firstCol + col)];
+            }
+        }
+        return greyImage;
+    }
+
+    /**
+     * the function decodes the part of the image under the given sub-images and calculates the ones that
+     * were not saved yet
+     * @param blocks the saved blocks of the sub-image size
+     * @param subSize the size of a sub-image
+     * @param minRow the first row of sub-images
+     * @param maxRow the last row of sub-images
+     * @param minCol the first col of sub-images
+     * @param maxCol the last col of sub-images
+     * @throws IOException if the region can not be decoded
+     */
+    private void fillCells(Map<Long, double[]> blocks, int subSize, int minRow, int maxRow, int minCol,
+                           int maxCol) throws IOException {
+        Rectangle cells = new Rectangle(minCol * subSize, minRow * subSize, (maxCol - minCol + 1) * subSize,
+                (maxRow - minRow + 1) * subSize);
+        Rectangle region = cells.intersection(new Rectangle(0, 0, imageWidth, imageHeight));
+        Image pixels = region.isEmpty() ? null : new Image(filename, region);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                double[] block = getBlock(blocks, row, col);
+                int index = cellIndex(row, col);
+                if (Double.isNaN(block[index])) {
+                    block[index] = cellBrightness(pixels, region, row * subSize, col * subSize, subSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * the function calculates the normalized gray scale of a single sub picture
+     * @param pixels the decoded region, null if it is empty
+     * @param region the position of the decoded region in the image
+     * @param top the first row of the sub picture in the image
+     * @param left the first col of the sub picture in the image
+     * @param subSize the size of the sub picture
+     * @return the normalized gray scale
+     */
+    private static double cellBrightness(Image pixels, Rectangle region, int top, int left, int subSize) {
+        int rowStart = Math.max(top, region.y);
+        int rowEnd = Math.min(top + subSize, region.y + region.height);
+        int colStart = Math.max(left, region.x);
+        int colEnd = Math.min(left + subSize, region.x + region.width);
+        double sum = 0;
+        long count = 0;
+        if (pixels != null) {
+            for (int i = rowStart; i < rowEnd; i++) {
+                for (int j = colStart; j < colEnd; j++) {
+                    sum += ImageBrightness.greyPixel(pixels.getRGB(i - region.y, j - region.x));
+                    count++;
+                }
+            }
+        }
+        long cellPixels = (long) subSize * subSize;
+        return (sum + WHITE * (cellPixels - count)) / cellPixels / 255;
+    }
+
+    /**
+     * the function returns the saved block of a sub-image, creating an empty one if there is none
+     * @param blocks the saved blocks of the sub-image size
+     * @param row the row of the sub-image
+     * @param col the col of the sub-image
+     * @return the block, NaN marks the sub-images that were not calculated
+     */
+    private static double[] getBlock(Map<Long, double[]> blocks, int row, int col) {
+        long key = ((long) Math.floorDiv(row, BLOCK_SIZE) << 32) |
+                (Math.floorDiv(col, BLOCK_SIZE) & 0xFFFFFFFFL);
+        return blocks.computeIfAbsent(key, k -> {
+            double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+            Arrays.fill(block, Double.NaN);
+            return block;
+        });
+    }
+
+    /**
+     * @return the index of a sub-image in its block
+     */
+    private static int cellIndex(int row, int col) {
+        return Math.floorMod(row, BLOCK_SIZE) * BLOCK_SIZE + Math.floorMod(col, BLOCK_SIZE);
+    }
+}
@@ -0,0 +1,226 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * An image whose pixels are kept outside the java heap, for inputs too big for a Color array.
+ * The image can be a view of a part of the pixels, padded with white where the view exceeds them - the
+ * padded image and the sub-images of an OffHeapImage share its pixels instead of copying them.
+ * Closing any of the views releases the pixels of all of them - direct memory goes back to a pool that
+ * the next image reuses, while a memory-mapped file is deleted at once but unmapped only when the garbage
+ * collector reclaims its buffers.
+ */
+public class OffHeapImage extends Image implements AutoCloseable {
+    private static final int OPAQUE = 0xFF000000;
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final long STRIP_PIXELS = 1 << 22;
+
+    private final OffHeapPixels pixels;
+    private final int pixelsWidth;
+    private final int pixelsHeight;
+    private final int top;
+    private final int left;
+
+    /**
+     * constructor
+     * @param pixels the pixels
+     * @param pixelsWidth the number of pixels in a row of the store
+     * @param pixelsHeight the number of rows in the store
+     * @param top the row of the store shown in the first row of the image, may be negative
+     * @param left the col of the store shown in the first col of the image, may be negative
+     * @param width int
+     * @param height int
+     */
+    private OffHeapImage(OffHeapPixels pixels, int pixelsWidth, int pixelsHeight, int top, int left,
+                         int width, int height) {
+        super(width, height);
+        this.pixels = pixels;
+        this.pixelsWidth = pixelsWidth;
+        this.pixelsHeight = pixelsHeight;
+        this.top = top;
+        this.left = left;
+    }
+
+    /**
+     * decodes an image file straight into off-heap memory
+     * @param filename name
+     * @param memoryMapped true to keep the pixels in a memory-mapped temporary file, false for direct
+     *                     memory
+     * @return the image
+     * @throws IOException exception
+     */
+    public static OffHeapImage load(String filename, boolean memoryMapped) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filename))) {
+            if (input == null) {
+                throw new IOException(String.format("Can not open \"%s\"", filename));
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                long numPixels = (long) width * height;
+                OffHeapPixels pixels = memoryMapped ? OffHeapPixels.map(numPixels) :
+                        OffHeapPixels.allocate(numPixels);
+                try {
+                    ImageTypeSpecifier rawType = reader.getRawImageType(0);
+                    int bands = rawType == null ? 0 : rawType.getNumBands();
+                    if (numPixels <= Integer.MAX_VALUE && (bands == 3 || bands == 4)) {
+                        readInto(reader, pixels, width, height, bands);
+                    } else {
+                        readInStrips(reader, pixels, width, height);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    pixels.close();
+                    throw e;
+                }
+                return new OffHeapImage(pixels, width, height, 0, 0, width, height);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * decodes the image with a destination whose raster writes straight into the pixels
+     */
+    private static void readInto(ImageReader reader, OffHeapPixels pixels, int width, int height,
+                                 int bands) throws IOException {
+        DirectColorModel colorModel = bands == 4 ?
+                new DirectColorModel(32, 0xFF0000, 0xFF00, 0xFF, 0xFF000000) :
+                new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        WritableRaster raster = Raster.createWritableRaster(colorModel.createCompatibleSampleModel(width,
+                height), new PixelsDataBuffer(pixels, width * height), null);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(new BufferedImage(colorModel, raster, false, null));
+        reader.read(0, param);
+    }
+
+    /**
+     * decodes the image a strip of rows at a time, for images the single raster of readInto can not hold
+     */
+    private static void readInStrips(ImageReader reader, OffHeapPixels pixels, int width, int height)
+            throws IOException {
+        int stripHeight = (int) Math.max(1, STRIP_PIXELS / width);
+        int[] rowRgb = new int[width];
+        for (int stripTop = 0; stripTop < height; stripTop += stripHeight) {
+            int rows = Math.min(stripHeight, height - stripTop);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, stripTop, width, rows));
+            BufferedImage strip = reader.read(0, param);
+            for (int i = 0; i < rows; i++) {
+                strip.getRGB(0, i, width, 1, rowRgb, 0, width);
+                long rowStart = (long) (stripTop + i) * width;
+                for (int j = 0; j < width; j++) {
+                    pixels.set(rowStart + j, rowRgb[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * getter of a view of the same pixels
+     * @param top the row of this image shown in the first row of the view, may be negative
+     * @param left the col of this image shown in the first col of the view, may be negative
+     * @param width the width of the view
+     * @param height the height of the view
+     * @return the view, white where it exceeds the pixels
+     */
+    public OffHeapImage getView(int top, int left, int width, int height) {
+        return new OffHeapImage(pixels, pixelsWidth, pixelsHeight, this.top + top, this.left + left,
+                width, height);
+    }
+
+    @Override
+    public Image getSubImage(int top, int left, int width, int height) {
+        return getView(top, left, width, height);
+    }
+
+    @Override
+    public int getRGB(int x, int y) {
+        int row = x + top;
+        int col = y + left;
+        if (row < 0 || row >= pixelsHeight || col < 0 || col >= pixelsWidth) {
+            return WHITE;
+        }
+        return pixels.get((long) row * pixelsWidth + col) | OPAQUE;
+    }
+
+    @Override
+    public Color getPixel(int x, int y) {
+        return new Color(getRGB(x, y));
+    }
+
+    /**
+     * releases the off-heap pixels of this image and of all the views that share them
+     */
+    @Override
+    public void close() {
+        pixels.close();
+    }
+
+    /**
+     * equals - views are equal when they show the same part of the same pixels. an OffHeapImage is never
+     * equal to an Image of another class, like Image.equals
+     * @param obj object to compare
+     * @return true if equal objects
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof OffHeapImage)) {
+            return false;
+        }
+        OffHeapImage other = (OffHeapImage) obj;
+        return other.pixels == pixels && other.top == top && other.left == left &&
+                other.getWidth() == getWidth() && other.getHeight() == getHeight();
+    }
+
+    /**
+     * Hash code override - does not read the pixels
+     * @return a hash number
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(pixels), top, left, getWidth(), getHeight());
+    }
+
+    /**
+     * A data buffer of a single bank that reads and writes the off-heap pixels
+     */
+    private static class PixelsDataBuffer extends DataBuffer {
+        private final OffHeapPixels pixels;
+
+        PixelsDataBuffer(OffHeapPixels pixels, int size) {
+            super(TYPE_INT, size);
+            this.pixels = pixels;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return pixels.get(i);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            pixels.set(i, val);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A package-private store of packed pixels outside the java heap - either in direct buffers or in a
+ * memory-mapped temporary file. The pixels are split into chunks, so the number of pixels is not limited
+ * by the size of a single buffer.
+ * The direct buffers of a closed store are pooled and reused by the next stores, since the JVM frees direct
+ * memory only when the garbage collector reclaims the buffer.
+ */
+class OffHeapPixels implements AutoCloseable {
+    private static final int CHUNK_SHIFT = 28;
+    private static final long CHUNK_PIXELS = 1L << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = (int) CHUNK_PIXELS - 1;
+    private static final long MAX_POOLED_BYTES = CHUNK_PIXELS * Integer.BYTES;
+
+    /**
+     * the released direct buffers by their capacity
+     */
+    private static final TreeMap<Integer, Deque<ByteBuffer>> pool = new TreeMap<>();
+    private static long pooledBytes;
+
+    private volatile IntBuffer[] chunks;
+    private final ByteBuffer[] directBuffers;
+    private final Path file;
+
+    /**
+     * constructor
+     * @param chunks the chunks of the pixels
+     * @param directBuffers the direct buffers the chunks are views of, null for a mapped file
+     * @param file the temporary file the chunks are mapped from, null for direct buffers
+     */
+    private OffHeapPixels(IntBuffer[] chunks, ByteBuffer[] directBuffers, Path file) {
+        this.chunks = chunks;
+        this.directBuffers = directBuffers;
+        this.file = file;
+    }
+
+    /**
+     * allocates the pixels in direct buffers, reusing pooled buffers that are large enough
+     * @param numPixels the number of pixels
+     * @return the new store
+     */
+    static OffHeapPixels allocate(long numPixels) {
+        IntBuffer[] chunks = new IntBuffer[numChunks(numPixels)];
+        ByteBuffer[] directBuffers = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            int bytes = chunkBytes(numPixels, i);
+            directBuffers[i] = takePooled(bytes);
+            if (directBuffers[i] == null) {
+                directBuffers[i] = ByteBuffer.allocateDirect(bytes);
+            }
+            chunks[i] = directBuffers[i].clear().limit(bytes).slice().order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        }
+        return new OffHeapPixels(chunks, directBuffers, null);
+    }
+
+    /**
+     * takes the smallest pooled buffer of at least the given capacity
+     * @param bytes the capacity
+     * @return the buffer, or null if there is none
+     */
+    private static synchronized ByteBuffer takePooled(int bytes) {
+        Map.Entry<Integer, Deque<ByteBuffer>> entry = pool.ceilingEntry(bytes);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer buffer = entry.getValue().pop();
+        if (entry.getValue().isEmpty()) {
+            pool.remove(entry.getKey());
+        }
+        pooledBytes -= buffer.capacity();
+        return buffer;
+    }
+
+    /**
+     * returns a buffer to the pool, unless the pool is full - then the buffer is left to the garbage
+     * collector
+     * @param buffer the released buffer
+     */
+    private static synchronized void returnToPool(ByteBuffer buffer) {
+        if (pooledBytes + buffer.capacity() > MAX_POOLED_BYTES) {
+            return;
+        }
+        pool.computeIfAbsent(buffer.capacity(), key -> new ArrayDeque<>()).push(buffer);
+        pooledBytes += buffer.capacity();
+    }
+
+    /**
+     * maps the pixels from a new temporary file, deleted when the store is closed
+     * @param numPixels the number of pixels
+     * @return the new store
+     * @throws IOException if the file can not be created or mapped
+     */
+    static OffHeapPixels map(long numPixels) throws IOException {
+        Path file = Files.createTempFile("image", ".pixels");
+        file.toFile().deleteOnExit();
+        IntBuffer[] chunks = new IntBuffer[numChunks(numPixels)];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_PIXELS * Integer.BYTES,
+                        chunkBytes(numPixels, i)).order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new OffHeapPixels(chunks, null, file);
+    }
+
+    private static int numChunks(long numPixels) {
+        return (int) ((numPixels + CHUNK_PIXELS - 1) >> CHUNK_SHIFT);
+    }
+
+    private static int chunkBytes(long numPixels, int chunk) {
+        return (int) (Math.min(CHUNK_PIXELS, numPixels - chunk * CHUNK_PIXELS) * Integer.BYTES);
+    }
+
+    /**
+     * getter
+     * @param index the pixel index
+     * @return the packed pixel
+     */
+    int get(long index) {
+        return getChunks()[(int) (index >>> CHUNK_SHIFT)].get((int) index & CHUNK_MASK);
+    }
+
+    /**
+     * setter
+     * @param index the pixel index
+     * @param value the packed pixel
+     */
+    void set(long index, int value) {
+        getChunks()[(int) (index >>> CHUNK_SHIFT)].put((int) index & CHUNK_MASK, value);
+    }
+
+    private IntBuffer[] getChunks() {
+        IntBuffer[] current = chunks;
+        if (current == null) {
+            throw new IllegalStateException("Off-heap pixels were released");
+        }
+        return current;
+    }
+
+    /**
+     * releases the pixels - the buffers can no longer be reached through the store. direct buffers go back
+     * to the pool, the temporary file is deleted and its mapped memory is returned once the buffers are
+     * collected. closing twice does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (chunks == null) {
+            return;
+        }
+        chunks = null;
+        if (directBuffers != null) {
+            for (ByteBuffer buffer : directBuffers) {
+                returnToPool(buffer);
+            }
+        }
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // deleteOnExit removes it later
+            }
+        }
+    }
+}
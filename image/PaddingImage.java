@@ -6,7 +6,7 @@ import java.awt.*;
  * the class is responsible for padding a given image so its height and width is a power of 2.
  */
 public class PaddingImage{
-    private final Color[][] pixelPaddedArray;
+    private Color[][] pixelPaddedArray;
     private final int paddedWidth;
     private final int paddedHeight;
     private final Image image; // the original image
@@ -19,7 +19,6 @@ public class PaddingImage{
     public PaddingImage(Image image){
         paddedWidth = convertPowerOfTwo(image.getWidth());
         paddedHeight = convertPowerOfTwo(image.getHeight());
-        pixelPaddedArray = new Color[paddedHeight][paddedWidth];
         this.image = image;
     }
 
@@ -38,11 +37,18 @@ public class PaddingImage{
 
     /**
      * the function pads the original image with white color in the added pixels.
+     * an off-heap image is not copied, it is returned as a padded view of the same pixels.
      * @return the new padded image
      */
     public Image padImage(){
         int deltaHeight = (int)Math.ceil((paddedHeight - image.getHeight())/2);
         int deltaWidth = (int)Math.ceil((paddedWidth - image.getWidth())/2);
+        if(image instanceof OffHeapImage){
+            return ((OffHeapImage) image).getView(-deltaHeight, -deltaWidth, paddedWidth, paddedHeight);
+        }
+        if(pixelPaddedArray == null){
+            pixelPaddedArray = new Color[paddedHeight][paddedWidth];
+        }
         for( int row = 0; row <paddedHeight; row ++){
             for( int col = 0; col <paddedWidth; col ++){
                 boolean isRowWhite = deltaHeight!=0 &&
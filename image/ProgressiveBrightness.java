@@ -0,0 +1,151 @@
+package image;
+
+/**
+ * the class calculates the brightness of the sub-images in successive passes, from a cheap sampled pass
+ * in a quarter of the resolution up to the exact brightness in the wanted resolution.
+ * every sampled pass only visits the pixels that the previous passes did not sample, and adds them to the
+ * per sub-image sums kept from the previous passes. the last pass is taken from ImageBrightness, so it is
+ * the same grid a full render calculates, and it is saved in its cache.
+ */
+public class ProgressiveBrightness {
+    private static final int[] LEVEL_FACTORS = {4, 2, 1};
+
+    private final Image image;
+    private final int subSize;
+    private final int rows;
+    private final int cols;
+    private final double[][] sums;
+    private final int[][] counts;
+    private final int[] strides;
+    private int pass;
+
+    /**
+     * the constructor - given the padded image and the wanted resolution
+     * @param image the original image
+     * @param resolution given resolution
+     */
+    public ProgressiveBrightness(Image image, int resolution){
+        this.image = image;
+        this.subSize = image.getWidth()/resolution;
+        this.rows = image.getHeight()/subSize;
+        this.cols = resolution;
+        this.sums = new double[rows][cols];
+        this.counts = new int[rows][cols];
+        int firstStride = Integer.highestOneBit(Math.max(1, subSize/2));
+        this.strides = new int[]{firstStride, Math.max(1, firstStride/4), 1};
+        this.pass = 0;
+    }
+
+    /**
+     * @return true if there is a finer pass left to calculate
+     */
+    public boolean hasNextPass(){
+        return pass < LEVEL_FACTORS.length;
+    }
+
+    /**
+     * @return the number of sub pictures in a row of the result of the next pass
+     */
+    public int nextPassResolution(){
+        int factor = LEVEL_FACTORS[pass];
+        return (cols + factor - 1)/factor;
+    }
+
+    /**
+     * the function counts the pixels the next pass samples, to estimate how long it takes
+     * @return the number of pixels
+     */
+    public long nextPassSamples(){
+        if(isExactPass()){
+            return new ImageBrightness(image, cols).isCalculated() ? 0 : (long) subSize*subSize * rows * cols;
+        }
+        int stride = strides[pass];
+        int previousStride = pass == 0 ? 0 : strides[pass-1];
+        if(stride == previousStride){
+            return 0;
+        }
+        long perSide = (subSize + stride - 1)/stride;
+        long previousPerSide = previousStride == 0 ? 0 : (subSize + previousStride - 1)/previousStride;
+        return (perSide*perSide - previousPerSide*previousPerSide) * rows * cols;
+    }
+
+    /**
+     * the function samples the pixels of the next pass and returns the brightness in the pass resolution.
+     * the last pass samples every pixel, so its result is the exact brightness in the wanted resolution.
+     * @return an array of the sub pictures normalized gray scale in the resolution of the pass
+     */
+    public double[][] nextPass(){
+        if(isExactPass()){
+            pass++;
+            return new ImageBrightness(image, cols).calculateBrightness();
+        }
+        int stride = strides[pass];
+        int previousStride = pass == 0 ? 0 : strides[pass-1];
+        int factor = LEVEL_FACTORS[pass];
+        pass++;
+        if(stride != previousStride){
+            samplePixels(stride, previousStride);
+        }
+        return mergeCells(factor);
+    }
+
+    /**
+     * @return true if the next pass is the exact brightness in the wanted resolution
+     */
+    private boolean isExactPass(){
+        return pass == LEVEL_FACTORS.length - 1;
+    }
+
+    /**
+     * the function adds to the sums every pixel on the stride grid of each sub picture that is not on the
+     * grid of the previous stride
+     * @param stride the sampling stride of this pass
+     * @param previousStride the sampling stride of the previous pass, 0 if there is none
+     */
+    private void samplePixels(int stride, int previousStride){
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                double sum = 0;
+                int count = 0;
+                for (int i = 0; i < subSize; i += stride) {
+                    boolean isPreviousRow = previousStride != 0 && i % previousStride == 0;
+                    for (int j = 0; j < subSize; j += stride) {
+                        if(isPreviousRow && j % previousStride == 0){
+                            continue;
+                        }
+                        sum += ImageBrightness.greyPixel(image.getRGB(row*subSize + i, col*subSize + j));
+                        count++;
+                    }
+                }
+                sums[row][col] += sum;
+                counts[row][col] += count;
+            }
+        }
+    }
+
+    /**
+     * the function merges blocks of factor X factor sub pictures into one and calculates its normalized
+     * gray scale
+     * @param factor the number of sub pictures in a row of a block
+     * @return an array of the blocks normalized gray scale
+     */
+    private double[][] mergeCells(int factor){
+        int mergedRows = (rows + factor - 1)/factor;
+        int mergedCols = (cols + factor - 1)/factor;
+        double[][] greyImage = new double[mergedRows][mergedCols];
+        for (int row = 0; row < mergedRows; row++) {
+            for (int col = 0; col < mergedCols; col++) {
+                double sum = 0;
+                long count = 0;
+                for (int i = row*factor; i < Math.min(rows, (row+1)*factor); i++) {
+                    for (int j = col*factor; j < Math.min(cols, (col+1)*factor); j++) {
+                        sum += sums[i][j];
+                        count += counts[i][j];
+                    }
+                }
+                greyImage[row][col] = sum/count/255;
+            }
+        }
+        return greyImage;
+    }
+}
@@ -0,0 +1,150 @@
+package image;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * the class estimates the brightness of the sub-images from a subset of their pixels, for resolutions in
+ * which every sub-image has many pixels but only one of a few chars is chosen for it.
+ * the pixels of a sub-image are read on a grid whose stride is halved every round, so the pixels of the
+ * previous rounds are kept and every stratum of the sub-image is sampled evenly. the grid starts at an
+ * offset that is chosen per sub-image by a hash of its position, so the sampled pixels are not always the
+ * top left ones of their strata, which would bias sub-images with an edge across them. after every round the
+ * standard error of the mean is estimated from the samples, and the sampling stops once the mean is further
+ * from the nearest brightness that is matched to another char than STANDARD_ERRORS standard errors. a
+ * sub-image that is not settled before the stride reaches 1 is calculated exactly, like ImageBrightness.
+ * the estimates are not saved in the ImageBrightness database.
+ */
+public class SampledBrightness {
+    /**
+     * the number of standard errors the mean must be away from a change of char
+     */
+    private static final double STANDARD_ERRORS = 3;
+    /**
+     * the number of samples in a row of the first round
+     */
+    private static final int FIRST_ROUND_SIDE = 8;
+    /**
+     * sub-images smaller than this are calculated exactly, sampling them saves nothing
+     */
+    private static final int MIN_SAMPLED_SIZE = 32;
+
+    private final Image image;
+    private final int subSize;
+    private final int rows;
+    private final int cols;
+    private final DoubleUnaryOperator margin;
+    private long sampledPixels;
+
+    /**
+     * the constructor - given the padded image and the wanted resolution
+     * @param image the original image
+     * @param resolution given resolution
+     * @param margin the distance from a normalized brightness to the nearest brightness that is matched to
+     *               another char
+     */
+    public SampledBrightness(Image image, int resolution, DoubleUnaryOperator margin){
+        this.image = image;
+        this.subSize = image.getWidth()/resolution;
+        this.rows = image.getHeight()/subSize;
+        this.cols = resolution;
+        this.margin = margin;
+    }
+
+    /**
+     * getter of the number of rows
+     * @return the number of sub pictures in a column of the image
+     */
+    public int getRows(){
+        return rows;
+    }
+
+    /**
+     * the function estimates the normalized gray scale of every sub picture in a row
+     * @param row the row number
+     * @return an array of the estimated normalized gray scale of the sub pictures in the row
+     */
+    public double[] calculateRow(int row){
+        double[] greyRow = new double[cols];
+        for (int col = 0; col < cols; col++) {
+            if (subSize < MIN_SAMPLED_SIZE) {
+                greyRow[col] = exactBrightness(row, col);
+                sampledPixels += (long) subSize*subSize;
+            }
+            else {
+                greyRow[col] = sampleBrightness(row, col);
+            }
+        }
+        return greyRow;
+    }
+
+    /**
+     * the function samples a sub picture in rounds of halving strides until its char is settled
+     * @param row the row of the sub picture
+     * @param col the col of the sub picture
+     * @return the estimated normalized gray scale
+     */
+    private double sampleBrightness(int row, int col){
+        int top = row*subSize;
+        int left = col*subSize;
+        long pixels = (long) subSize*subSize;
+        double sum = 0;
+        double sumSquares = 0;
+        long count = 0;
+        int previousStride = 0;
+        int firstStride = subSize/FIRST_ROUND_SIDE;
+        int hash = (row * 0x9E3779B1) ^ (col * 0x85EBCA77);
+        hash ^= hash >>> 15;
+        int rowOffset = Math.floorMod(hash, firstStride);
+        int colOffset = Math.floorMod(hash >>> 8, firstStride);
+        for (int stride = firstStride; stride > 1; stride /= 2) {
+            for (int i = rowOffset % stride; i < subSize; i += stride) {
+                for (int j = colOffset % stride; j < subSize; j += stride) {
+                    if (previousStride != 0 && (i - rowOffset) % previousStride == 0 &&
+                            (j - colOffset) % previousStride == 0) {
+                        continue;
+                    }
+                    double grey = ImageBrightness.greyPixel(image.getRGB(top + i, left + j))/255;
+                    sum += grey;
+                    sumSquares += grey*grey;
+                    count++;
+                }
+            }
+            previousStride = stride;
+            double mean = sum/count;
+            double variance = Math.max(0, (sumSquares - sum*mean)/(count - 1));
+            double standardError = Math.sqrt(variance/count*(1 - (double) count/pixels));
+            if (STANDARD_ERRORS*standardError < margin.applyAsDouble(mean)) {
+                sampledPixels += count;
+                return mean;
+            }
+        }
+        sampledPixels += count + pixels;
+        return exactBrightness(row, col);
+    }
+
+    /**
+     * the function calculates the normalized gray scale of a sub picture from all of its pixels, in the
+     * order ImageBrightness adds them, so the result is the same
+     * @param row the row of the sub picture
+     * @param col the col of the sub picture
+     * @return the normalized gray scale
+     */
+    public double exactBrightness(int row, int col){
+        double sumGraySubImage = 0;
+        for (int i = 0; i < subSize; i++) {
+            for (int j = 0; j < subSize; j++) {
+                sumGraySubImage += ImageBrightness.greyPixel(image.getRGB(row*subSize + i, col*subSize + j));
+            }
+        }
+        return sumGraySubImage/(subSize*subSize)/255;
+    }
+
+    /**
+     * getter of the number of pixels calculateRow read so far relative to the pixels of the image - a sub
+     * picture that was calculated exactly after sampling counts its samples and all of its pixels
+     * @return the fraction of the pixels of the image
+     */
+    public double getSampledFraction(){
+        return (double) sampledPixels/((long) rows*cols*subSize*subSize);
+    }
+}
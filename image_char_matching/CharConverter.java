@@ -36,6 +36,24 @@ public class CharConverter {
         return matrix;
     }
 
+    /**
+     * Renders a given character the same way as convertToBoolArray, to a square of opaque pixels in the
+     * given colors, row after row.
+     * @param c the character
+     * @param pixelsPerRow the dimension of the square in pixels
+     * @param foreground the packed RGB color of the character
+     * @param background the packed RGB color of the rest of the square
+     * @return the packed pixels of the square
+     */
+    public static int[] convertToPixels(char c, int pixelsPerRow, int foreground, int background) {
+        BufferedImage img = getBufferedImage(c, FONT_NAME, pixelsPerRow);
+        int[] pixels = img.getRGB(0, 0, pixelsPerRow, pixelsPerRow, null, 0, pixelsPerRow);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = pixels[i] == 0 ? background : foreground;
+        }
+        return pixels;
+    }
+
     private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
         String charStr = Character.toString(c);
         Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
@@ -0,0 +1,111 @@
+package image_char_matching;
+
+import java.util.Arrays;
+
+/**
+ * a class that matches rows of sub-image brightness values to ascii chars while diffusing the difference
+ * between each brightness and the brightness of its char to the neighbouring sub-images that were not
+ * matched yet. the rows must be given from top to bottom, and only the error of the next rows is kept.
+ */
+public class ErrorDiffusionDitherer {
+
+    /**
+     * The supported error diffusion kernels
+     */
+    public enum Kernel {
+        /**
+         * spreads all the error - 7/16 right, 3/16 down left, 5/16 down and 1/16 down right
+         */
+        FLOYD_STEINBERG,
+        /**
+         * spreads 6/8 of the error - 1/8 to the two cells on the right, the three cells below and the cell
+         * two rows below
+         */
+        ATKINSON
+    }
+
+    /**
+     * the number of cells added on each side of the error rows, so the kernels never leave the row
+     */
+    private static final int MARGIN = 2;
+
+    private final SubImgCharMatcher matcher;
+    private final Kernel kernel;
+    /**
+     * errors[0] holds the error diffused into the current row, errors[1] and errors[2] into the next ones
+     */
+    private final double[][] errors;
+
+    /**
+     * A constructor for ErrorDiffusionDitherer object
+     * @param matcher - the matcher that holds the charset and the brightness values
+     * @param kernel - the kernel used to diffuse the error
+     * @param cols - the number of sub-images in a row
+     */
+    public ErrorDiffusionDitherer(SubImgCharMatcher matcher, Kernel kernel, int cols) {
+        this.matcher = matcher;
+        this.kernel = kernel;
+        int rowsOfError = kernel == Kernel.ATKINSON ? 3 : 2;
+        this.errors = new double[rowsOfError][cols + 2 * MARGIN];
+    }
+
+    /**
+     * Matches a row of brightness values to chars, adding the error diffused from the previous rows and
+     * diffusing the error of this row
+     * @param brightnessRow - the brightness of the sub-images in the row
+     * @param charRow - the array the matching chars are written to
+     */
+    public void ditherRow(double[] brightnessRow, char[] charRow) {
+        double[] current = errors[0];
+        double[] next = errors[1];
+        double[] afterNext = errors.length > 2 ? errors[2] : null;
+        for (int col = 0; col < brightnessRow.length; col++) {
+            int index = col + MARGIN;
+            double brightness = brightnessRow[col] + current[index];
+            int level = matcher.findClosestLevel(brightness);
+            if (level < 0) {
+                charRow[col] = '\0';
+                continue;
+            }
+            charRow[col] = matcher.getLevelChar(level);
+            double error = brightness - matcher.getLevelBrightness(level);
+            if (Double.isNaN(error)) {
+                continue;
+            }
+            if (kernel == Kernel.FLOYD_STEINBERG) {
+                current[index + 1] += error * 7 / 16;
+                next[index - 1] += error * 3 / 16;
+                next[index] += error * 5 / 16;
+                next[index + 1] += error / 16;
+            } else {
+                double share = error / 8;
+                current[index + 1] += share;
+                current[index + 2] += share;
+                next[index - 1] += share;
+                next[index] += share;
+                next[index + 1] += share;
+                afterNext[index] += share;
+            }
+        }
+        shiftRows();
+    }
+
+    /**
+     * Clears the error diffused so far, so the ditherer can be used for another image
+     */
+    public void reset() {
+        for (double[] errorRow : errors) {
+            Arrays.fill(errorRow, 0);
+        }
+    }
+
+    /**
+     * Moves the error rows one row up, reusing the array of the finished row as the last one
+     */
+    private void shiftRows() {
+        double[] finished = errors[0];
+        System.arraycopy(errors, 1, errors, 0, errors.length - 1);
+        Arrays.fill(finished, 0);
+        errors[errors.length - 1] = finished;
+    }
+}
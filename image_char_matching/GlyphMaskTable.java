@@ -0,0 +1,66 @@
+package image_char_matching;
+
+/**
+ * A precomputed table of the printable ascii chars rendered by CharConverter, each one packed into four
+ * 64-bit words - bit (row * 16 + col) is set when the pixel is part of the background, like the true
+ * values of CharConverter.convertToBoolArray.
+ */
+public class GlyphMaskTable {
+    /**
+     * number of 64-bit words a single glyph mask takes
+     */
+    public static final int WORDS_PER_MASK = 4;
+    private static final char FIRST_CHAR = 32;
+    private static final char LAST_CHAR = 126;
+    private static final int MASK_SIZE = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+
+    private static long[][] masks;
+
+    private GlyphMaskTable() {
+    }
+
+    /**
+     * Returns the packed mask of a char, rendering the whole table on the first call
+     * @param c a printable ascii char
+     * @return the four words of the char mask
+     */
+    public static long[] getMask(char c) {
+        if (c < FIRST_CHAR || c > LAST_CHAR) {
+            return pack(CharConverter.convertToBoolArray(c));
+        }
+        return getMasks()[c - FIRST_CHAR];
+    }
+
+    /**
+     * Renders all the printable ascii chars once
+     * @return the table of masks, indexed by char - 32
+     */
+    private static synchronized long[][] getMasks() {
+        if (masks == null) {
+            long[][] table = new long[LAST_CHAR - FIRST_CHAR + 1][];
+            for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+                table[c - FIRST_CHAR] = pack(CharConverter.convertToBoolArray(c));
+            }
+            masks = table;
+        }
+        return masks;
+    }
+
+    /**
+     * Packs a 16X16 boolean matrix into four words, row after row
+     * @param matrix the char matrix
+     * @return the packed mask
+     */
+    private static long[] pack(boolean[][] matrix) {
+        long[] mask = new long[WORDS_PER_MASK];
+        for (int row = 0; row < MASK_SIZE; row++) {
+            for (int col = 0; col < MASK_SIZE; col++) {
+                if (matrix[row][col]) {
+                    int bit = row * MASK_SIZE + col;
+                    mask[bit >> 6] |= 1L << (bit & 63);
+                }
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,60 @@
+package image_char_matching;
+
+/**
+ * a class that matches the thresholded 16X16 bitmap of a sub image to the ascii char whose shape differs
+ * from it in the least number of pixels
+ */
+public class ShapeCharMatcher {
+
+    private final char[] charset;
+    /**
+     * the masks of the charset, WORDS_PER_MASK words after each other in the order of the charset
+     */
+    private final long[] masks;
+
+    /**
+     * A constructor for ShapeCharMatcher object
+     * @param charset a sorted list of ascii chars
+     */
+    public ShapeCharMatcher(char[] charset) {
+        this.charset = charset.clone();
+        this.masks = new long[charset.length * GlyphMaskTable.WORDS_PER_MASK];
+        for (int i = 0; i < charset.length; i++) {
+            System.arraycopy(GlyphMaskTable.getMask(charset[i]), 0, masks,
+                    i * GlyphMaskTable.WORDS_PER_MASK, GlyphMaskTable.WORDS_PER_MASK);
+        }
+    }
+
+    /**
+     * Gets the char whose mask has the smallest hamming distance from the given bitmap, the smallest char
+     * if there are several
+     * @param bitmaps - an array of packed bitmaps
+     * @param offset - the index of the first word of the wanted bitmap
+     * @return - the ascii char with the closest shape
+     */
+    public char getCharByShape(long[] bitmaps, int offset) {
+        long word0 = bitmaps[offset];
+        long word1 = bitmaps[offset + 1];
+        long word2 = bitmaps[offset + 2];
+        long word3 = bitmaps[offset + 3];
+        int minDistance = Integer.MAX_VALUE;
+        char minChar = '\0';
+        for (int i = 0, mask = 0; i < charset.length; i++, mask += GlyphMaskTable.WORDS_PER_MASK) {
+            int distance = Long.bitCount(word0 ^ masks[mask]) + Long.bitCount(word1 ^ masks[mask + 1])
+                    + Long.bitCount(word2 ^ masks[mask + 2]) + Long.bitCount(word3 ^ masks[mask + 3]);
+            if (distance < minDistance) {
+                minDistance = distance;
+                minChar = charset[i];
+            }
+        }
+        return minChar;
+    }
+
+    /**
+     * getter for the charset
+     * @return the charset the matcher was built with
+     */
+    public char[] getCharset() {
+        return charset;
+    }
+}
@@ -27,6 +27,12 @@ public class SubImgCharMatcher {
      * Map with key=brightness and value=Set with all the ascii chars that have that brightness norma
      */
     private HashMap<Double, Set<Character>> brightnessValuesMap;
+
+    /**
+     * the distinct normalized brightness values in ascending order, and the smallest char of each one
+     */
+    private double[] sortedBrightness;
+    private char[] sortedChars;
     private double minBrightness;
     private double maxBrightness;
 
@@ -106,6 +112,25 @@ public class SubImgCharMatcher {
                 charSet.add(asciiChar);
             }
         }
+        createSortedBrightness();
+    }
+
+    /**
+     * Creates the sorted arrays of the brightness values and their smallest chars, used for the lookup
+     */
+    private void createSortedBrightness() {
+        double[] brightnessValues = new double[brightnessValuesMap.size()];
+        int index = 0;
+        for (double brightness : brightnessValuesMap.keySet()) {
+            brightnessValues[index++] = brightness;
+        }
+        Arrays.sort(brightnessValues);
+        char[] chars = new char[brightnessValues.length];
+        for (int i = 0; i < brightnessValues.length; i++) {
+            chars[i] = getMinChar(brightnessValuesMap.get(brightnessValues[i]));
+        }
+        this.sortedBrightness = brightnessValues;
+        this.sortedChars = chars;
     }
 
     /**
@@ -130,29 +155,77 @@ public class SubImgCharMatcher {
      * @return - an ascii char with the closest value to brightness received
      */
     public char getCharByImageBrightness(double brightness) {
-        Set<Character> charByBrightnessSet = brightnessValuesMap.get(brightness);
-        if (charByBrightnessSet != null) {
-            return getMinChar(charByBrightnessSet);
-        }
-        double closestKey = -1;
-        double minDistance = 0;
-        double minCharDistance = 0;
-        char minChar = '\0';
-        for (Double brightnessKey : brightnessValuesMap.keySet()) {
-            double distance = Math.abs(brightnessKey - brightness);
-            if (closestKey == -1 || distance <= minDistance) {
-                closestKey = brightnessKey;
-                minDistance = distance;
-                boolean equalToPreviousMin = (minCharDistance == minDistance);
-                if (minChar == '\0' || (equalToPreviousMin &&
-                                getMinChar(brightnessValuesMap.get(closestKey)) < minChar) ||
-                                            !equalToPreviousMin){
-                    minChar = getMinChar(brightnessValuesMap.get(closestKey));
-                    minCharDistance = distance;
-                }
-            }
+        int level = findClosestLevel(brightness);
+        return level < 0 ? '\0' : sortedChars[level];
+    }
+
+    /**
+     * Finds the brightness value closest to the given brightness with a binary search, the one with the
+     * smaller char if two are equally close
+     * @param brightness - the wanted brightness
+     * @return - the index of the value in the sorted arrays, -1 if the charset is empty
+     */
+    int findClosestLevel(double brightness) {
+        if (sortedBrightness.length <= 1) {
+            return sortedBrightness.length - 1;
         }
-        return minChar;
+        int above = Arrays.binarySearch(sortedBrightness, brightness);
+        if (above >= 0) {
+            return above;
+        }
+        above = -above - 1;
+        if (above == 0) {
+            return 0;
+        }
+        if (above == sortedBrightness.length) {
+            return above - 1;
+        }
+        int below = above - 1;
+        double belowDistance = brightness - sortedBrightness[below];
+        double aboveDistance = sortedBrightness[above] - brightness;
+        if (belowDistance < aboveDistance ||
+                (belowDistance == aboveDistance && sortedChars[below] < sortedChars[above])) {
+            return below;
+        }
+        return above;
+    }
+
+    /**
+     * Finds how far a brightness is from the nearest brightness that is matched to another char - a
+     * brightness closer than this to the given one gets the same char
+     * @param brightness - the brightness
+     * @return - the distance to the nearest middle between the matched value and its neighbour, infinite if
+     * the charset has a single value
+     */
+    public double getMatchMargin(double brightness) {
+        int level = findClosestLevel(brightness);
+        double margin = Double.POSITIVE_INFINITY;
+        if (level > 0) {
+            margin = brightness - (sortedBrightness[level - 1] + sortedBrightness[level]) / 2;
+        }
+        if (level >= 0 && level < sortedBrightness.length - 1) {
+            double above = (sortedBrightness[level] + sortedBrightness[level + 1]) / 2;
+            margin = Math.min(margin, above - brightness);
+        }
+        return margin;
+    }
+
+    /**
+     * getter of a normalized brightness value found by findClosestLevel
+     * @param level - the index of the value
+     * @return - the normalized brightness
+     */
+    double getLevelBrightness(int level) {
+        return sortedBrightness[level];
+    }
+
+    /**
+     * getter of the char of a brightness value found by findClosestLevel
+     * @param level - the index of the value
+     * @return - the smallest char with that brightness
+     */
+    char getLevelChar(int level) {
+        return sortedChars[level];
     }
 
     /**
@@ -0,0 +1,231 @@
+package ascii_art;
+
+import image.Image;
+
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests of TileCoordinator with workers that run as threads of the test and speak the TileWorker protocol.
+ * run with java -ea ascii_art.TileCoordinatorTest, it throws an AssertionError on the first failing test.
+ */
+public class TileCoordinatorTest {
+    private static final int POISON_TILE = 0;
+    private static final int RESOLUTION = 4;
+    private static final char CONVERTED = '#';
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long SLOW_TILE_MILLIS = 200;
+
+    /**
+     * a worker thread that answers every tile with CONVERTED chars, and closes the connection when it
+     * receives the poison tile if it fails it
+     */
+    private static class FakeWorker extends Thread {
+        private final Socket socket;
+        private final boolean failsPoisonTile;
+        private final long tileMillis;
+
+        FakeWorker(Socket socket, boolean failsPoisonTile, long tileMillis) {
+            super("fake-tile-worker");
+            this.socket = socket;
+            this.failsPoisonTile = failsPoisonTile;
+            this.tileMillis = tileMillis;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try (Socket connection = socket) {
+                DataInputStream input = new DataInputStream(
+                        new BufferedInputStream(connection.getInputStream()));
+                DataOutputStream output = new DataOutputStream(
+                        new BufferedOutputStream(connection.getOutputStream()));
+                while (true) {
+                    int tileId = input.readInt();
+                    input.skipBytes(input.readInt() * Character.BYTES);
+                    int width = input.readInt();
+                    int height = input.readInt();
+                    int cols = input.readInt();
+                    input.skipBytes(width * height * Integer.BYTES);
+                    if (failsPoisonTile && tileId == POISON_TILE) {
+                        return;
+                    }
+                    if (tileMillis > 0) {
+                        Thread.sleep(tileMillis);
+                    }
+                    int rows = height / (width / cols);
+                    output.writeInt(tileId);
+                    output.writeInt(rows);
+                    output.writeInt(cols);
+                    for (int i = 0; i < rows * cols; i++) {
+                        output.writeChar(CONVERTED);
+                    }
+                    output.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // the coordinator closed the connection
+            }
+        }
+    }
+
+    /**
+     * starts a fake worker for every entry and connects the coordinator to them
+     * @param failsPoisonTile whether each worker fails the poison tile
+     * @return the coordinator
+     */
+    private static TileCoordinator connect(boolean... failsPoisonTile) throws IOException {
+        return connect(0, failsPoisonTile);
+    }
+
+    /**
+     * starts a fake worker for every entry and connects the coordinator to them
+     * @param tileMillis how long each worker takes to convert a tile
+     * @param failsPoisonTile whether each worker fails the poison tile
+     * @return the coordinator
+     */
+    private static TileCoordinator connect(long tileMillis, boolean... failsPoisonTile) throws IOException {
+        List<Socket> sockets = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0, failsPoisonTile.length,
+                InetAddress.getLoopbackAddress())) {
+            for (boolean fails : failsPoisonTile) {
+                new FakeWorker(new Socket(server.getInetAddress(), server.getLocalPort()), fails,
+                        tileMillis).start();
+                sockets.add(server.accept());
+            }
+        }
+        return new TileCoordinator(sockets);
+    }
+
+    /**
+     * a white image of 64X64 pixels
+     */
+    private static Image whiteImage() {
+        Color[][] pixels = new Color[64][64];
+        for (Color[] row : pixels) {
+            Arrays.fill(row, Color.WHITE);
+        }
+        return new Image(pixels, 64, 64);
+    }
+
+    /**
+     * runs a batch on the coordinator, failing the test if it does not return in time
+     * @return the result, or the exception the batch threw
+     */
+    private static Object runWithTimeout(TileCoordinator coordinator) throws Exception {
+        FutureTask<List<char[][]>> task = new FutureTask<>(() -> coordinator.runBatch(
+                Collections.singletonList(whiteImage()), new char[]{CONVERTED}, RESOLUTION));
+        Thread thread = new Thread(task, "tile-coordinator-test");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            return task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            throw new AssertionError("runBatch did not return", e);
+        }
+    }
+
+    /**
+     * a tile that a failing worker drops is converted by the healthy worker
+     */
+    private static void testFailingWorkerNextToHealthyWorker() throws Exception {
+        try (TileCoordinator coordinator = connect(true, false)) {
+            Object result = runWithTimeout(coordinator);
+            if (!(result instanceof List)) {
+                throw new AssertionError("expected the healthy worker to convert every tile: " + result);
+            }
+            char[][] chars = (char[][]) ((List<?>) result).get(0);
+            for (char[] row : chars) {
+                for (char c : row) {
+                    if (c != CONVERTED) {
+                        throw new AssertionError("a tile was not converted");
+                    }
+                }
+            }
+            if (coordinator.getNumWorkers() != 1) {
+                throw new AssertionError("expected the failing worker to be dropped");
+            }
+        }
+    }
+
+    /**
+     * a tile that runs out of attempts fails the batch while a worker is still alive, instead of leaving it
+     * waiting for the tile forever. every worker fails the poison tile, so it uses up its attempts on three
+     * of the four workers and the last one converts only the other tiles.
+     */
+    private static void testTileOutOfAttemptsFailsWhileWorkersAreAlive() throws Exception {
+        try (TileCoordinator coordinator = connect(true, true, true, true)) {
+            Object result = runWithTimeout(coordinator);
+            if (!(result instanceof IOException)) {
+                throw new AssertionError("expected the batch to fail: " + result);
+            }
+            if (coordinator.getNumWorkers() != 1) {
+                throw new AssertionError("expected the last worker to stay alive");
+            }
+        }
+    }
+
+    /**
+     * interrupting a batch stops it with an InterruptedIOException once the tiles in flight are done, and
+     * keeps the workers for the next batch
+     */
+    private static void testInterruptKeepsWorkers() throws Exception {
+        try (TileCoordinator coordinator = connect(SLOW_TILE_MILLIS, false, false)) {
+            FutureTask<List<char[][]>> task = new FutureTask<>(() -> coordinator.runBatch(
+                    Collections.singletonList(whiteImage()), new char[]{CONVERTED}, RESOLUTION));
+            Thread thread = new Thread(task, "tile-coordinator-test");
+            thread.setDaemon(true);
+            thread.start();
+            Thread.sleep(SLOW_TILE_MILLIS / 2);
+            thread.interrupt();
+            try {
+                task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                throw new AssertionError("expected the batch to be interrupted");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof InterruptedIOException)) {
+                    throw new AssertionError("expected an interrupt: " + e.getCause());
+                }
+            }
+            for (Thread serving : Thread.getAllStackTraces().keySet()) {
+                if (serving.getName().equals("tile-coordinator")) {
+                    throw new AssertionError("a thread still serves a worker");
+                }
+            }
+            if (coordinator.getNumWorkers() != 2) {
+                throw new AssertionError("expected the workers to stay alive");
+            }
+            if (!(runWithTimeout(coordinator) instanceof List)) {
+                throw new AssertionError("expected the workers to convert the next batch");
+            }
+        }
+    }
+
+    /**
+     * runs all the tests
+     * @param args unused
+     * @throws Exception if a test fails
+     */
+    public static void main(String[] args) throws Exception {
+        testFailingWorkerNextToHealthyWorker();
+        testTileOutOfAttemptsFailsWhileWorkersAreAlive();
+        testInterruptKeepsWorkers();
+        System.out.println("TileCoordinatorTest passed");
+    }
+}